@@ -0,0 +1,86 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// AverageBenchmark
+//
+// Boxcar and exponential averaging of aligned sweeps, in ns per sample.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AverageBenchmark
+{
+    @Param({"256", "512", "1024", "2048", "4096", "8192", "16384"})
+    public int count;
+
+    @Param({"1", "2"})
+    public int mode;
+
+    private Average average;
+    private short sweep[];
+    private short data[];
+
+    // Setup
+    @Setup
+    public void setup()
+    {
+        sweep = Signals.sweep(count, 4);
+        data = new short[count];
+
+        average = new Average(count);
+        average.set(mode, 16);
+    }
+
+    // Average a block of sweeps
+    @Benchmark
+    @OperationsPerInvocation(Signals.BLOCK)
+    public short process()
+    {
+        for (int i = 0; i < Signals.BLOCK; i += count)
+        {
+            System.arraycopy(sweep, 0, data, 0, count);
+            average.process(data, count);
+        }
+
+        return data[0];
+    }
+}
@@ -0,0 +1,107 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Random;
+
+// Signals
+//
+// Synthetic 192kHz capture of the pulse stream for the benchmarks, the
+// square wave stimulus with a reflection, line loss and noise.
+public class Signals
+{
+    protected static final int SAMPLE = 192000;
+    protected static final int FRAMES = 4096;
+
+    // Samples processed by each benchmark invocation
+    protected static final int BLOCK = 65536;
+
+    // As Main.values and Main.counts
+    protected static final float values[] =
+    {
+        0.1f, 0.2f, 0.5f, 1.0f,
+        2.0f, 5.0f, 10.0f
+    };
+
+    protected static final int counts[] =
+    {
+        256, 512, 1024, 2048,
+        4096, 8192, 16384
+    };
+
+    private static final int LATENCY = 1000;
+    private static final int AMPLITUDE = 8192;
+    private static final int NOISE = 300;
+
+    // Range for a sweep length
+    protected static int range(int count)
+    {
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] == count)
+                return i;
+
+        return 0;
+    }
+
+    // Capture of size samples for sweeps of count samples
+    protected static short[] capture(int count, int size)
+    {
+        Random random = new Random(count);
+        short data[] = new short[size];
+
+        int period = count * 2;
+        int delay = count / 3;
+
+        for (int i = 0; i < size; i++)
+        {
+            int t = i - LATENCY;
+            double v = 0;
+
+            // Leading edge and reflection of each pulse
+            if (t >= 0)
+            {
+                int phase = t % period;
+                v += (phase < count)? AMPLITUDE: 0;
+                v += (phase >= delay && phase < delay + count)?
+                    AMPLITUDE / 4: 0;
+                v *= Math.exp(-phase / (double) period);
+            }
+
+            v += random.nextGaussian() * NOISE;
+            data[i] = (short) v;
+        }
+
+        return data;
+    }
+
+    // Aligned sweep of count samples
+    protected static short[] sweep(int count, int index)
+    {
+        short data[] = capture(count, LATENCY + count * 2 * (index + 1));
+        short sweep[] = new short[count];
+        System.arraycopy(data, LATENCY + count * 2 * index, sweep, 0, count);
+
+        return sweep;
+    }
+}
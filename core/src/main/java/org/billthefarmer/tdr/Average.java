@@ -0,0 +1,182 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Average
+//
+// Coherent average of aligned sweeps, either a boxcar of the last
+// count sweeps, or an exponential average with a time constant of
+// count sweeps. The accumulators are only reallocated when the
+// settings change, not for each sweep.
+public class Average
+{
+    protected static final int OFF = 0;
+    protected static final int BOXCAR = 1;
+    protected static final int EXPONENTIAL = 2;
+
+    private static final int SHIFT = 16;
+
+    // Settings, applied by the next process()
+    protected volatile int mode;
+    protected volatile int count;
+
+    private int size;
+    private int current;
+    private int number;
+    private int length;
+    private int index;
+    private int n;
+
+    private short sweeps[][];
+    private int sums[];
+    private long values[];
+
+    // Average
+    public Average(int size)
+    {
+        this.size = size;
+        count = 1;
+    }
+
+    // Set
+    public void set(int mode, int count)
+    {
+        this.mode = mode;
+        this.count = count;
+    }
+
+    // Reset
+    public void reset()
+    {
+        n = 0;
+        index = 0;
+    }
+
+    // Process a sweep in place, returns the number of sweeps averaged
+    public int process(short data[], int length)
+    {
+        int mode = this.mode;
+        int count = this.count;
+
+        // Settings changed
+        if (mode != current || count != number || length != this.length)
+            setup(mode, count, length);
+
+        switch (mode)
+        {
+        case BOXCAR:
+            boxcar(data, length);
+            break;
+
+        case EXPONENTIAL:
+            exponential(data, length);
+            break;
+
+        default:
+            return 1;
+        }
+
+        return n;
+    }
+
+    // Setup
+    private void setup(int mode, int count, int length)
+    {
+        switch (mode)
+        {
+        case BOXCAR:
+            if (sweeps == null || sweeps.length < count)
+                sweeps = new short[count][size];
+            if (sums == null)
+                sums = new int[size];
+            break;
+
+        case EXPONENTIAL:
+            if (values == null)
+                values = new long[size];
+            break;
+        }
+
+        current = mode;
+        number = count;
+        this.length = length;
+
+        reset();
+    }
+
+    // Boxcar, sum of the last count sweeps
+    private void boxcar(short data[], int length)
+    {
+        short old[] = sweeps[index];
+
+        if (n < number)
+        {
+            // Start again
+            if (n++ == 0)
+                for (int i = 0; i < length; i++)
+                    sums[i] = 0;
+
+            for (int i = 0; i < length; i++)
+            {
+                sums[i] += data[i];
+                old[i] = data[i];
+                data[i] = (short) (sums[i] / n);
+            }
+        }
+
+        else
+        {
+            for (int i = 0; i < length; i++)
+            {
+                sums[i] += data[i] - old[i];
+                old[i] = data[i];
+                data[i] = (short) (sums[i] / n);
+            }
+        }
+
+        if (++index >= number)
+            index = 0;
+    }
+
+    // Exponential, cumulative average until count sweeps
+    private void exponential(short data[], int length)
+    {
+        if (n < number)
+            n++;
+
+        // First one
+        if (n == 1)
+        {
+            for (int i = 0; i < length; i++)
+                values[i] = (long) data[i] << SHIFT;
+            return;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            values[i] += (((long) data[i] << SHIFT) - values[i]) / n;
+            data[i] = (short) (values[i] >> SHIFT);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Cable
+//
+// Cable profile, the velocity factor, line impedance and attenuation
+// of a kind of cable. Distances are scaled by the velocity factor
+// from those in Distance, which are for a factor of one. The metres
+// for each sample and the gain that makes up for the loss to and from
+// each sample are kept in tables, calculated when the range or rate
+// changes rather than for each sample drawn or read out. Each thread
+// that uses the tables needs its own cable.
+public class Cable
+{
+    protected static final int DEFAULT = 0;
+    protected static final int COAX = 1;
+    protected static final int SATELLITE = 2;
+    protected static final int TWISTED = 3;
+    protected static final int POWER = 4;
+
+    // Largest loss that is made up for in dB
+    private static final float LIMIT = 40;
+
+    // Velocity factor, line impedance and loss in dB per metre
+    private static final float profiles[][] =
+    {
+        {1.00f, 50, 0},
+        {0.66f, 50, 0.013f},
+        {0.85f, 75, 0.007f},
+        {0.64f, 100, 0.021f},
+        {0.55f, 80, 0.030f}
+    };
+
+    protected final int profile;
+    protected final float velocity;
+    protected final float impedance;
+    protected final float attenuation;
+
+    // Metres for each sample
+    private float metres[];
+    private int metresLength;
+    private int metresRate;
+
+    // Gain for each sample
+    private float gains[];
+    private int gainsLength;
+    private int gainsRate;
+
+    // Cable
+    public Cable(int profile)
+    {
+        this.profile = profile;
+        velocity = profiles[profile][0];
+        impedance = profiles[profile][1];
+        attenuation = profiles[profile][2];
+    }
+
+    // Metres for each sample of a sweep, and one more
+    public float[] metres(int length, int rate)
+    {
+        if (metres == null || length != metresLength || rate != metresRate)
+        {
+            metresLength = length;
+            metresRate = rate;
+
+            metres = new float[length + 1];
+            for (int i = 0; i <= length; i++)
+                metres[i] = (float) Distance.metres(i, rate) * velocity;
+        }
+
+        return metres;
+    }
+
+    // Metres at a fractional sample from the table
+    public float metres(float sample)
+    {
+        int i = (int) sample;
+        if (i < 0)
+            return metres[0];
+
+        if (i >= metresLength)
+            return metres[metresLength];
+
+        return metres[i] + (metres[i + 1] - metres[i]) * (sample - i);
+    }
+
+    // Gain that makes up for the loss there and back for each sample
+    // of a sweep, null if there isn't any loss
+    public float[] gains(int length, int rate)
+    {
+        if (attenuation == 0)
+            return null;
+
+        if (gains == null || length != gainsLength || rate != gainsRate)
+        {
+            gainsLength = length;
+            gainsRate = rate;
+
+            gains = new float[length];
+            for (int i = 0; i < length; i++)
+            {
+                double db = Math.min(LIMIT, 2 * attenuation * velocity *
+                                     Distance.metres(i, rate));
+                gains[i] = (float) Math.pow(10, db / 20);
+            }
+        }
+
+        return gains;
+    }
+}
@@ -0,0 +1,231 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Capture
+//
+// Capture pipeline, keeps a history of the captured samples, finds
+// the pulse edges with Sync, and publishes an averaged sweep from
+// each edge into the store. Sweeps of a chirp or maximum length
+// sequence stimulus are compressed with the matched filter, and
+// the response of the audio path is removed if it has been calibrated,
+// a time varying gain makes up for the loss along the cable, and
+// reflections are detected in each sweep before it is published. The
+// frames and sweeps are recorded if there is a recorder, and the
+// processing time of each buffer goes into the metrics.
+public class Capture
+{
+    protected static final int HISTORY = 65536;
+
+    protected Store store;
+    protected Sync sync;
+    protected Average average;
+    protected Matched matched;
+    protected Detector detector;
+    protected Deconvolve deconvolve;
+    protected Stimulus stimulus;
+    protected Recorder recorder;
+    protected Metrics metrics;
+    protected Gain gain;
+
+    // Input sample rate
+    protected volatile int sample;
+
+    // Sweep length and expected pulse period in samples
+    protected volatile int length;
+    protected volatile double period;
+
+    private short history[];
+    private long position;
+    private long start;
+    private int count;
+
+    // System time in ns the current buffer was read
+    private long nanos;
+
+    // Time input frame zero was captured, from the input timestamp
+    private long origin;
+
+    // Capture
+    public Capture(int size)
+    {
+        history = new short[HISTORY];
+        metrics = new Metrics();
+        store = new Store();
+        store.metrics = metrics;
+        sync = new Sync();
+        average = new Average(size);
+        matched = new Matched();
+        detector = new Detector();
+        deconvolve = new Deconvolve();
+        gain = new Gain();
+
+        start = -1;
+    }
+
+    // Reset
+    public void reset()
+    {
+        position = 0;
+        start = -1;
+        origin = 0;
+
+        sync.reset(position);
+        average.reset();
+        detector.reset();
+    }
+
+    // Set the time an input frame was captured
+    public void timestamp(long frame, long nanos)
+    {
+        if (sample > 0)
+            origin = nanos - (long) (frame * 1e9 / sample);
+    }
+
+    // Process a buffer, returns the number of sweeps published
+    public int process(short buffer[], int size)
+    {
+        nanos = System.nanoTime();
+
+        // Record the frames
+        if (recorder != null)
+            recorder.frames(position, buffer, size);
+
+        // Copy the data into the history
+        int index = (int) position & (HISTORY - 1);
+        int n = Math.min(size, HISTORY - index);
+        System.arraycopy(buffer, 0, history, index, n);
+        System.arraycopy(buffer, n, history, 0, size - n);
+        position += size;
+
+        if (stimulus != null && stimulus.rate > 0)
+        {
+            // Expected pulse period
+            period = (double) stimulus.period * sample / stimulus.rate;
+
+            // Stimulus changed, or the sequence length with the sweep
+            int mode = stimulus.mode;
+            if (mode != matched.mode ||
+                stimulus.template(mode, sample, null) != matched.length)
+            {
+                matched.set(stimulus, mode, sample);
+                detector.sidelobe = matched.sidelobe;
+                average.reset();
+                detector.reset();
+            }
+        }
+
+        sync.period = period;
+        int sweeps = 0;
+
+        // The matched filter needs the whole stimulus after the sweep
+        int extra = (matched.mode == Stimulus.STEP)? 0: matched.length;
+
+        // Start a sweep at each pulse edge
+        while (sync.process(history, HISTORY - 1, position))
+        {
+            // Publish the last sweep if complete
+            if (start >= 0 && start + count + extra <= position)
+            {
+                publish(start, count);
+                sweeps++;
+            }
+
+            start = sync.t0;
+            count = length;
+        }
+
+        // Publish the current sweep if complete
+        if (start >= 0 && start + count + extra <= position)
+        {
+            publish(start, count);
+            start = -1;
+            sweeps++;
+        }
+
+        metrics.process.record(System.nanoTime() - nanos);
+        return sweeps;
+    }
+
+    // Publish a sweep from the history
+    private void publish(long start, int count)
+    {
+        Sweep sweep = store.acquire(count);
+
+        if (matched.mode == Stimulus.STEP)
+        {
+            int index = (int) start & (HISTORY - 1);
+            int n = Math.min(count, HISTORY - index);
+            System.arraycopy(history, index, sweep.data, 0, n);
+            System.arraycopy(history, 0, sweep.data, n, count - n);
+        }
+
+        else
+            matched.process(history, HISTORY - 1, start, count, sweep.data);
+
+        sweep.length = count;
+        sweep.time = start;
+
+        // Time the pulse that started the sweep was emitted, from the
+        // time its edge was captured, or was read at the end of the
+        // buffer it was in if there's no input timestamp
+        if (sample > 0)
+        {
+            long captured = (origin != 0)?
+                origin + (long) (start * 1e9 / sample):
+                nanos - (long) ((position - start) * 1e9 / sample);
+            long emitted = (stimulus != null)?
+                stimulus.emitted(captured): 0;
+            sweep.nanos = (emitted != 0)? emitted: captured;
+        }
+
+        // Only average tracked sweeps
+        if (sync.state == Sync.TRACK)
+            average.process(sweep.data, count);
+
+        else
+        {
+            average.reset();
+            detector.reset();
+        }
+
+        // Remove the audio path response
+        deconvolve.process(sweep.data, count, matched.mode, sample);
+
+        // Make up for the loss along the cable, keeping the sweep
+        // without it for the impedance profile
+        sweep.gained = gain.process(sweep.data, sweep.raw, count, sample,
+                                    matched.mode == Stimulus.STEP);
+
+        // Detect reflections
+        detector.process(sweep, matched.mode == Stimulus.STEP);
+        store.publish();
+        metrics.sweeps.incrementAndGet();
+
+        // Record the sweep
+        if (recorder != null)
+            recorder.sweep(start, count, sample, matched.mode,
+                           (stimulus != null)? stimulus.rate: 0, period);
+    }
+}
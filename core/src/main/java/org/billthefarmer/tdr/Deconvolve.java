@@ -0,0 +1,429 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Deconvolve
+//
+// Removes the response of the audio path from each sweep. Reference
+// sweeps of an open, short or load are captured for each range, and
+// the path response is taken from the difference of the open and
+// short if there are both, or the one there is. Each sweep is then
+// filtered with a regularised inverse of the response in the
+// frequency domain, reshaped to a narrow gaussian of the same area in
+// the same place, so reflections keep their position and size but
+// lose the ringing and smear. Step sweeps are differentiated first
+// and integrated after, so the filter sees an impulse. The filter
+// spectrum is kept for each range, stimulus and rate, and only
+// recalculated when a reference changes. The references are copied
+// to be saved, so they can be written without holding up capture.
+public class Deconvolve
+{
+    protected static final int OPEN = 0;
+    protected static final int SHORT = 1;
+    protected static final int LOAD = 2;
+    protected static final int REFERENCES = 3;
+
+    private static final int MAGIC = 0x4c414354;
+
+    // Regularisation relative to the peak power of the response
+    private static final float EPSILON = 0.01f;
+
+    // Width of the gaussian target in samples
+    private static final float SIGMA = 1;
+
+    // Samples of the response kept before and after its peak
+    private static final int BEFORE = 32;
+    private static final int AFTER = 256;
+
+    protected volatile boolean enabled;
+
+    // Reference to capture from the next sweep
+    protected volatile int request = -1;
+
+    // A reference has been captured and not saved
+    protected volatile boolean changed;
+
+    private HashMap<String, Calibration> calibrations;
+    private volatile boolean dirty;
+
+    // Current calibration, owned by the capture thread
+    private Calibration current;
+    private int count;
+    private int mode;
+    private int sample;
+    private float data[];
+
+    // References and filter for a range, stimulus and rate
+    private static class Calibration
+    {
+        private int count;
+        private int mode;
+        private int sample;
+
+        private float references[][];
+        private float spectrum[];
+        private FFT fft;
+
+        // Calibration
+        private Calibration(int count, int mode, int sample)
+        {
+            this.count = count;
+            this.mode = mode;
+            this.sample = sample;
+
+            references = new float[REFERENCES][];
+        }
+    }
+
+    // Deconvolve
+    public Deconvolve()
+    {
+        calibrations = new HashMap<>();
+    }
+
+    // Process a sweep in place, capturing a reference first if one
+    // has been requested
+    public void process(short sweep[], int length, int mode, int sample)
+    {
+        if (length != count || mode != this.mode || sample != this.sample ||
+            dirty)
+        {
+            dirty = false;
+            count = length;
+            this.mode = mode;
+            this.sample = sample;
+            current = calibration(length, mode, sample, false);
+        }
+
+        int reference = request;
+        if (reference >= 0)
+        {
+            request = -1;
+            current = capture(sweep, length, mode, sample, reference);
+        }
+
+        if (!enabled || current == null || current.spectrum == null)
+            return;
+
+        FFT fft = current.fft;
+        int n = fft.size;
+        if (data == null || data.length < n)
+            data = new float[n];
+
+        // Differentiate steps
+        boolean step = (mode == Stimulus.STEP);
+        for (int i = 0; i < n; i++)
+            data[i] = (i >= length)? 0: (!step)? sweep[i]:
+                (i == 0)? 0: sweep[i] - sweep[i - 1];
+
+        fft.forward(data);
+        fft.correlate(data, current.spectrum);
+        fft.inverse(data);
+
+        // Integrate steps
+        float value = sweep[0];
+        for (int i = 0; i < length; i++)
+        {
+            float v = data[i];
+            if (step)
+            {
+                value += (i == 0)? 0: v;
+                v = value;
+            }
+
+            sweep[i] = (short) Math.max(Short.MIN_VALUE,
+                                        Math.min(Short.MAX_VALUE, v));
+        }
+    }
+
+    // Forget the references for a range, stimulus and rate
+    public synchronized void clear(int length, int mode, int sample)
+    {
+        calibrations.remove(key(length, mode, sample));
+        dirty = true;
+        changed = true;
+    }
+
+    // Whether there is a filter for a range, stimulus and rate
+    public synchronized boolean calibrated(int length, int mode, int sample)
+    {
+        Calibration calibration = calibrations.get(key(length, mode, sample));
+        return calibration != null && calibration.spectrum != null;
+    }
+
+    // Save the references, one file for each calibration
+    public void save(File dir) throws IOException
+    {
+        // Copy the references, which are replaced, not changed
+        ArrayList<Calibration> copies = new ArrayList<>();
+        synchronized (this)
+        {
+            changed = false;
+            for (Calibration calibration: calibrations.values())
+            {
+                Calibration copy = new Calibration(calibration.count,
+                                                   calibration.mode,
+                                                   calibration.sample);
+                System.arraycopy(calibration.references, 0,
+                                 copy.references, 0, REFERENCES);
+                copies.add(copy);
+            }
+        }
+
+        // Remove the ones that have been cleared
+        File files[] = dir.listFiles((d, name) -> name.endsWith(".cal"));
+        if (files != null)
+        {
+            for (File file: files)
+            {
+                boolean kept = false;
+                for (Calibration copy: copies)
+                    if (file.getName().equals(key(copy.count, copy.mode,
+                                                  copy.sample) + ".cal"))
+                        kept = true;
+
+                if (!kept)
+                    file.delete();
+            }
+        }
+
+        for (Calibration calibration: copies)
+        {
+            String name = key(calibration.count, calibration.mode,
+                              calibration.sample) + ".cal";
+            try (DataOutputStream output =
+                 new DataOutputStream(new BufferedOutputStream
+                                      (new FileOutputStream(new File(dir,
+                                                                     name)))))
+            {
+                output.writeInt(MAGIC);
+                output.writeInt(calibration.count);
+                output.writeInt(calibration.mode);
+                output.writeInt(calibration.sample);
+
+                for (float reference[]: calibration.references)
+                {
+                    output.writeBoolean(reference != null);
+                    if (reference != null)
+                        for (float v: reference)
+                            output.writeFloat(v);
+                }
+            }
+        }
+    }
+
+    // Load the saved references
+    public synchronized void load(File dir) throws IOException
+    {
+        File files[] = dir.listFiles((d, name) -> name.endsWith(".cal"));
+        if (files == null)
+            return;
+
+        for (File file: files)
+        {
+            try (DataInputStream input =
+                 new DataInputStream(new BufferedInputStream
+                                     (new FileInputStream(file))))
+            {
+                if (input.readInt() != MAGIC)
+                    throw new IOException(file.getPath());
+
+                int count = input.readInt();
+                int mode = input.readInt();
+                int sample = input.readInt();
+
+                Calibration calibration =
+                    calibration(count, mode, sample, true);
+                for (int i = 0; i < REFERENCES; i++)
+                {
+                    if (!input.readBoolean())
+                        continue;
+
+                    float reference[] = new float[count];
+                    for (int j = 0; j < count; j++)
+                        reference[j] = input.readFloat();
+
+                    calibration.references[i] = reference;
+                }
+
+                filter(calibration);
+            }
+        }
+
+        dirty = true;
+    }
+
+    // Store a reference and recalculate the filter
+    private synchronized Calibration capture(short sweep[], int length,
+                                             int mode, int sample,
+                                             int reference)
+    {
+        Calibration calibration = calibration(length, mode, sample, true);
+
+        float values[] = new float[length];
+        for (int i = 0; i < length; i++)
+            values[i] = sweep[i];
+
+        calibration.references[reference] = values;
+        filter(calibration);
+
+        changed = true;
+        return calibration;
+    }
+
+    // Get a calibration, creating it if wanted
+    private synchronized Calibration calibration(int length, int mode,
+                                                 int sample, boolean create)
+    {
+        String key = key(length, mode, sample);
+        Calibration calibration = calibrations.get(key);
+        if (calibration == null && create)
+        {
+            calibration = new Calibration(length, mode, sample);
+            calibrations.put(key, calibration);
+        }
+
+        return calibration;
+    }
+
+    // Calculate the filter spectrum from the references
+    private static void filter(Calibration calibration)
+    {
+        float open[] = calibration.references[OPEN];
+        float shorted[] = calibration.references[SHORT];
+        float load[] = calibration.references[LOAD];
+
+        int length = calibration.count;
+        boolean step = (calibration.mode == Stimulus.STEP);
+
+        // The response, the open and short reflections are opposite
+        float response[] = new float[length];
+        for (int i = 0; i < length; i++)
+        {
+            float v = (open != null && shorted != null)?
+                (open[i] - shorted[i]) / 2:
+                (load != null)? load[i]:
+                (open != null)? open[i]:
+                (shorted != null)? -shorted[i]: 0;
+
+            response[i] = v;
+        }
+
+        // Differentiate steps
+        if (step)
+        {
+            for (int i = length - 1; i > 0; i--)
+                response[i] -= response[i - 1];
+            response[0] = 0;
+        }
+
+        // Find the peak
+        int peak = 0;
+        for (int i = 0; i < length; i++)
+            if (Math.abs(response[i]) > Math.abs(response[peak]))
+                peak = i;
+
+        if (response[peak] == 0)
+        {
+            calibration.spectrum = null;
+            return;
+        }
+
+        // Keep the response around the peak and find its area, padded
+        // so the filter doesn't wrap round
+        int n = Integer.highestOneBit(length - 1) << 2;
+        float h[] = new float[n];
+        float area = 0;
+        for (int i = Math.max(0, peak - BEFORE);
+             i < Math.min(length, peak + AFTER); i++)
+        {
+            h[i] = response[i];
+            if (i < peak + BEFORE)
+                area += response[i];
+        }
+
+        // Gaussian target in the same place, of the same area for
+        // steps, and the same peak for compressed pulses, which have
+        // little area
+        float t[] = new float[n];
+        float scale = step?
+            (float) (area / (SIGMA * Math.sqrt(2 * Math.PI))):
+            response[peak];
+        for (int i = Math.max(0, peak - BEFORE);
+             i < Math.min(n, peak + BEFORE); i++)
+        {
+            float x = (i - peak) / SIGMA;
+            t[i] = (float) (scale * Math.exp(-x * x / 2));
+        }
+
+        FFT fft = FFT.plan(n);
+        fft.forward(h);
+        fft.forward(t);
+
+        // Peak power of the response
+        float max = Math.max(h[0] * h[0], h[1] * h[1]);
+        for (int i = 2; i < n; i += 2)
+            max = Math.max(max, h[i] * h[i] + h[i + 1] * h[i + 1]);
+
+        float lambda = max * EPSILON;
+
+        // The conjugate of conj(H) T / (|H|^2 + lambda), as the
+        // filter is applied with FFT.correlate()
+        float g[] = new float[n];
+        g[0] = h[0] * t[0] / (h[0] * h[0] + lambda);
+        g[1] = h[1] * t[1] / (h[1] * h[1] + lambda);
+        for (int i = 2; i < n; i += 2)
+        {
+            float hr = h[i];
+            float hi = h[i + 1];
+            float tr = t[i];
+            float ti = t[i + 1];
+            float d = hr * hr + hi * hi + lambda;
+
+            // H conj(T)
+            g[i] = (hr * tr + hi * ti) / d;
+            g[i + 1] = (hi * tr - hr * ti) / d;
+        }
+
+        calibration.fft = fft;
+        calibration.spectrum = g;
+    }
+
+    // Key for a range, stimulus and rate, also the file name
+    private static String key(int length, int mode, int sample)
+    {
+        return "TDR-" + length + "-" + mode + "-" + sample;
+    }
+}
@@ -0,0 +1,325 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Detector
+//
+// Finds reflections in each new sweep, peaks in the derivative of a
+// step response or in a compressed response above an adaptive noise
+// threshold, and tracks them from sweep to sweep. The threshold for a
+// compressed response is at least above the range sidelobes of its
+// largest peak, so they aren't taken for reflections. Only reflections
+// that have been seen in several sweeps are reported. Peak positions
+// are interpolated to a fraction of a sample.
+public class Detector
+{
+    private static final int MAX = Sweep.REFLECTIONS;
+
+    private static final int WIDTH = 4;
+    private static final int BLANK = WIDTH * 4;
+    private static final int FACTOR = 6;
+    private static final int MARGIN = 2;
+    private static final int MINIMUM = 64;
+    private static final float TOLERANCE = 4;
+    private static final float SMOOTH = 4;
+    private static final int HITS = 3;
+    private static final int MISSES = 8;
+
+    protected float noise;
+
+    // Highest range sidelobe of a compressed response relative to
+    // its peak
+    protected float sidelobe;
+
+    // Tracked reflections
+    private float positions[];
+    private float amplitudes[];
+    private int hits[];
+    private int misses[];
+    private int tracks;
+
+    // Peaks in the current sweep
+    private int peaks[];
+    private float offsets[];
+    private float values[];
+    private boolean used[];
+    private int count;
+
+    // Detector
+    public Detector()
+    {
+        positions = new float[MAX];
+        amplitudes = new float[MAX];
+        hits = new int[MAX];
+        misses = new int[MAX];
+
+        peaks = new int[MAX];
+        offsets = new float[MAX];
+        values = new float[MAX];
+        used = new boolean[MAX];
+    }
+
+    // Reset
+    public void reset()
+    {
+        tracks = 0;
+        noise = 0;
+    }
+
+    // Process a sweep, differentiating a step response, and set its
+    // reflections
+    public void process(Sweep sweep, boolean step)
+    {
+        short data[] = sweep.data;
+        int length = sweep.length;
+
+        if (length <= BLANK + WIDTH)
+        {
+            sweep.reflections = 0;
+            return;
+        }
+
+        // Update the noise estimate, the smoothed derivative is
+        // updated incrementally
+        long sum = 0;
+        int v = value(data, WIDTH, step) * WIDTH;
+        for (int i = WIDTH; i < length - WIDTH; i++)
+        {
+            if (step)
+            {
+                sum += Math.abs(v);
+                v += data[i + WIDTH] - data[i] * 2 + data[i - WIDTH];
+            }
+
+            else
+                sum += Math.abs(data[i]) * WIDTH;
+        }
+
+        float mean = (float) sum / WIDTH / (length - WIDTH * 2);
+        noise = (noise == 0)? mean: noise + (mean - noise) / SMOOTH;
+
+        float level = Math.max(noise * FACTOR, MINIMUM);
+
+        // Above the sidelobes of the largest peak
+        if (!step)
+        {
+            int max = 0;
+            for (int i = 0; i < length; i++)
+                max = Math.max(max, Math.abs(data[i]));
+
+            level = Math.max(level, max * sidelobe * MARGIN);
+        }
+
+        int threshold = (int) level * WIDTH;
+
+        // Find the largest peaks after the launch
+        count = 0;
+        v = value(data, BLANK, step) * WIDTH;
+        for (int i = BLANK; i < length - WIDTH; i++)
+        {
+            int a = step? v: data[i] * WIDTH;
+            if (step)
+                v += data[i + WIDTH] - data[i] * 2 + data[i - WIDTH];
+
+            if (Math.abs(a) <= threshold || !peak(data, i, step, length))
+                continue;
+
+            insert(i, a / WIDTH);
+        }
+
+        // Interpolate the peaks
+        for (int i = 0; i < count; i++)
+            offsets[i] = interpolate(data, peaks[i], step, length);
+
+        match();
+        report(sweep);
+    }
+
+    // Value of the response at a sample, the derivative of a step
+    // response is smoothed so each edge has a single peak at its
+    // first sample
+    private int value(short data[], int i, boolean step)
+    {
+        if (!step)
+            return data[i];
+
+        int sum = 0;
+        for (int j = 0; j < WIDTH; j++)
+            sum += data[i + j] - data[i - j - 1];
+
+        return sum / WIDTH;
+    }
+
+    // Fit a parabola through a peak and its neighbours and return the
+    // offset of its vertex, the smoothed derivative is centred half a
+    // sample before the peak
+    private float interpolate(short data[], int i, boolean step, int length)
+    {
+        float offset = 0;
+
+        if (i - 1 >= WIDTH && i + 1 < length - WIDTH)
+        {
+            float a = value(data, i - 1, step);
+            float b = value(data, i, step);
+            float c = value(data, i + 1, step);
+
+            float d = a - b * 2 + c;
+            if (d != 0)
+                offset = Math.max(-0.5f, Math.min((a - c) / (d * 2), 0.5f));
+        }
+
+        return step? offset - 0.5f: offset;
+    }
+
+    // Check for a local peak
+    private boolean peak(short data[], int i, boolean step, int length)
+    {
+        int a = Math.abs(value(data, i, step));
+        int from = Math.max(i - WIDTH * 2, WIDTH);
+        int to = Math.min(i + WIDTH * 2, length - WIDTH - 1);
+
+        for (int j = from; j <= to; j++)
+        {
+            int b = Math.abs(value(data, j, step));
+            if (b > a || (b == a && j < i))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Insert a peak, keeping the largest
+    private void insert(int position, float value)
+    {
+        int i = count;
+        if (count < MAX)
+            count++;
+
+        else if (Math.abs(value) <= Math.abs(values[MAX - 1]))
+            return;
+
+        else
+            i = MAX - 1;
+
+        for (; i > 0 && Math.abs(values[i - 1]) < Math.abs(value); i--)
+        {
+            peaks[i] = peaks[i - 1];
+            values[i] = values[i - 1];
+        }
+
+        peaks[i] = position;
+        values[i] = value;
+    }
+
+    // Match the peaks with the tracked reflections
+    private void match()
+    {
+        for (int i = 0; i < count; i++)
+            used[i] = false;
+
+        for (int t = 0; t < tracks;)
+        {
+            // Find the nearest peak
+            int nearest = -1;
+            for (int i = 0; i < count; i++)
+            {
+                if (used[i])
+                    continue;
+
+                float d = Math.abs(peaks[i] + offsets[i] - positions[t]);
+                if (d <= TOLERANCE && (nearest < 0 || d <
+                                       Math.abs(peaks[nearest] +
+                                                offsets[nearest] -
+                                                positions[t])))
+                    nearest = i;
+            }
+
+            // Update the track
+            if (nearest >= 0)
+            {
+                used[nearest] = true;
+                positions[t] += (peaks[nearest] + offsets[nearest] -
+                                 positions[t]) / SMOOTH;
+                amplitudes[t] += (values[nearest] - amplitudes[t]) / SMOOTH;
+                hits[t] = Math.min(hits[t] + 1, HITS);
+                misses[t] = 0;
+            }
+
+            // Remove it if it has gone
+            else if (++misses[t] > MISSES)
+            {
+                remove(t);
+                continue;
+            }
+
+            t++;
+        }
+
+        // Start new tracks
+        for (int i = 0; i < count && tracks < MAX; i++)
+        {
+            if (used[i])
+                continue;
+
+            positions[tracks] = peaks[i] + offsets[i];
+            amplitudes[tracks] = values[i];
+            hits[tracks] = 1;
+            misses[tracks] = 0;
+            tracks++;
+        }
+    }
+
+    // Remove a track
+    private void remove(int t)
+    {
+        tracks--;
+        positions[t] = positions[tracks];
+        amplitudes[t] = amplitudes[tracks];
+        hits[t] = hits[tracks];
+        misses[t] = misses[tracks];
+    }
+
+    // Report confirmed reflections in order of position
+    private void report(Sweep sweep)
+    {
+        int n = 0;
+        for (int t = 0; t < tracks; t++)
+        {
+            if (hits[t] < HITS)
+                continue;
+
+            int i = n++;
+            for (; i > 0 && sweep.positions[i - 1] > positions[t]; i--)
+            {
+                sweep.positions[i] = sweep.positions[i - 1];
+                sweep.amplitudes[i] = sweep.amplitudes[i - 1];
+            }
+
+            sweep.positions[i] = positions[t];
+            sweep.amplitudes[i] = amplitudes[t];
+        }
+
+        sweep.reflections = n;
+    }
+}
@@ -0,0 +1,46 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Distance
+//
+// Converts between sample positions in a sweep and distance along
+// the cable, using the same calibration as the scales.
+public class Distance
+{
+    // Metres per second of sweep time
+    protected static final double VELOCITY = 10000;
+
+    // Metres
+    public static double metres(double samples, int rate)
+    {
+        return samples * VELOCITY / rate;
+    }
+
+    // Samples
+    public static double samples(double metres, int rate)
+    {
+        return metres * rate / VELOCITY;
+    }
+}
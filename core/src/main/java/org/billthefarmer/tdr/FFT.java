@@ -0,0 +1,231 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// FFT
+//
+// In place real FFT plans with precomputed twiddles and bit reversal,
+// cached by size. The real transform of n samples uses a complex FFT
+// of n / 2 points. Spectra are packed, with the real dc and nyquist
+// values in the first two elements, followed by the real and
+// imaginary parts of the other bins. The inverse is scaled, so it
+// is the exact inverse of the forward transform.
+public class FFT
+{
+    private static final FFT plans[] = new FFT[31];
+
+    protected int size;
+
+    private int half;
+    private int reverse[];
+    private float cos[];
+    private float sin[];
+    private float rcos[];
+    private float rsin[];
+
+    // Get a plan for a power of two size
+    public static synchronized FFT plan(int size)
+    {
+        int k = Integer.numberOfTrailingZeros(size);
+        if (plans[k] == null)
+            plans[k] = new FFT(size);
+
+        return plans[k];
+    }
+
+    // FFT
+    private FFT(int size)
+    {
+        this.size = size;
+        half = size / 2;
+
+        // Bit reversal
+        reverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++)
+            reverse[i] = (bits == 0)? 0: Integer.reverse(i) >>> (32 - bits);
+
+        // Twiddles for the complex FFT
+        cos = new float[Math.max(half / 2, 1)];
+        sin = new float[Math.max(half / 2, 1)];
+        for (int i = 0; i < half / 2; i++)
+        {
+            cos[i] = (float) Math.cos(2 * Math.PI * i / half);
+            sin[i] = (float) Math.sin(2 * Math.PI * i / half);
+        }
+
+        // Twiddles for separating the real transform
+        rcos = new float[half / 2 + 1];
+        rsin = new float[half / 2 + 1];
+        for (int i = 0; i <= half / 2; i++)
+        {
+            rcos[i] = (float) Math.cos(2 * Math.PI * i / size);
+            rsin[i] = (float) Math.sin(2 * Math.PI * i / size);
+        }
+    }
+
+    // Forward transform of size real samples
+    public void forward(float data[])
+    {
+        transform(data, false);
+
+        // Separate the even and odd transforms
+        float r = data[0];
+        data[0] = r + data[1];
+        data[1] = r - data[1];
+
+        for (int k = 1; k <= half / 2; k++)
+        {
+            int j = half - k;
+
+            float ar = data[2 * k];
+            float ai = data[2 * k + 1];
+            float br = data[2 * j];
+            float bi = data[2 * j + 1];
+
+            // Even and odd parts
+            float er = (ar + br) / 2;
+            float ei = (ai - bi) / 2;
+            float or = (ai + bi) / 2;
+            float oi = (br - ar) / 2;
+
+            // Twiddle the odd part by exp(-2 pi i k / size)
+            float c = rcos[k];
+            float s = rsin[k];
+            float tr = or * c + oi * s;
+            float ti = oi * c - or * s;
+
+            data[2 * k] = er + tr;
+            data[2 * k + 1] = ei + ti;
+            data[2 * j] = er - tr;
+            data[2 * j + 1] = ti - ei;
+        }
+    }
+
+    // Inverse transform of a packed spectrum
+    public void inverse(float data[])
+    {
+        // Combine into the even and odd transforms
+        float r = data[0];
+        data[0] = (r + data[1]) / 2;
+        data[1] = (r - data[1]) / 2;
+
+        for (int k = 1; k <= half / 2; k++)
+        {
+            int j = half - k;
+
+            float ar = data[2 * k];
+            float ai = data[2 * k + 1];
+            float br = data[2 * j];
+            float bi = data[2 * j + 1];
+
+            float er = (ar + br) / 2;
+            float ei = (ai - bi) / 2;
+            float tr = (ar - br) / 2;
+            float ti = (ai + bi) / 2;
+
+            // Untwiddle the odd part by exp(2 pi i k / size)
+            float c = rcos[k];
+            float s = rsin[k];
+            float or = tr * c - ti * s;
+            float oi = ti * c + tr * s;
+
+            // Even plus i times odd
+            data[2 * k] = er - oi;
+            data[2 * k + 1] = ei + or;
+            data[2 * j] = er + oi;
+            data[2 * j + 1] = or - ei;
+        }
+
+        transform(data, true);
+
+        float scale = 1f / half;
+        for (int i = 0; i < size; i++)
+            data[i] *= scale;
+    }
+
+    // Multiply a packed spectrum by the conjugate of another
+    public void correlate(float data[], float spectrum[])
+    {
+        data[0] *= spectrum[0];
+        data[1] *= spectrum[1];
+
+        for (int i = 2; i < size; i += 2)
+        {
+            float r = data[i] * spectrum[i] + data[i + 1] * spectrum[i + 1];
+            data[i + 1] = data[i + 1] * spectrum[i] -
+                data[i] * spectrum[i + 1];
+            data[i] = r;
+        }
+    }
+
+    // Complex FFT of interleaved data, the inverse is not scaled
+    private void transform(float data[], boolean inverse)
+    {
+        // Bit reverse
+        for (int i = 0; i < half; i++)
+        {
+            int j = reverse[i];
+            if (i < j)
+            {
+                float t = data[2 * i];
+                data[2 * i] = data[2 * j];
+                data[2 * j] = t;
+
+                t = data[2 * i + 1];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j + 1] = t;
+            }
+        }
+
+        float sign = inverse? 1: -1;
+
+        // Butterflies
+        for (int len = 2; len <= half; len <<= 1)
+        {
+            int m = len / 2;
+            int step = half / len;
+
+            for (int i = 0; i < half; i += len)
+            {
+                for (int j = 0; j < m; j++)
+                {
+                    float wr = cos[j * step];
+                    float wi = sign * sin[j * step];
+
+                    int a = 2 * (i + j);
+                    int b = 2 * (i + j + m);
+
+                    float tr = data[b] * wr - data[b + 1] * wi;
+                    float ti = data[b] * wi + data[b + 1] * wr;
+
+                    data[b] = data[a] - tr;
+                    data[b + 1] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+    }
+}
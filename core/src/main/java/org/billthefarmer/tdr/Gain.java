@@ -0,0 +1,161 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Gain
+//
+// Time varying gain, so far reflections aren't lost next to the
+// launch pulse. The curve is the gain that makes up for the loss
+// along the cable, times a ramp of up to slope dB over the sweep. It
+// is calculated once for each range and kept, and applied to each
+// compressed sweep in a plain loop over the arrays that the compiler
+// can vectorise. Only the reflections are amplified, so a step sweep
+// has the gain applied to its changes, which are added up again,
+// leaving the incident step level alone. That is a running sum, each
+// sample depends on the one before, so it stays a serial loop that
+// isn't vectorised. The settings may be changed from another thread,
+// the curves are calculated again by the next process().
+public class Gain
+{
+    // Largest total gain in dB
+    private static final float LIMIT = 60;
+
+    protected volatile boolean enabled;
+    protected volatile Cable cable;
+    protected volatile float slope;
+
+    // Curves for each power of two length
+    private float curves[][];
+    private int rate;
+    private Cable current;
+    private float ramp;
+    private boolean on;
+
+    // Gain
+    public Gain()
+    {
+        curves = new float[31][];
+        enabled = true;
+    }
+
+    // Set
+    public void set(boolean enabled, float slope)
+    {
+        this.enabled = enabled;
+        this.slope = slope;
+    }
+
+    // Apply the gain to a sweep in place, keeping the sweep without
+    // it in raw, returns false if there isn't any gain
+    public boolean process(short data[], short raw[], int length, int rate,
+                           boolean step)
+    {
+        float curve[] = curve(length, rate);
+        if (curve == null)
+            return false;
+
+        if (raw != null)
+            System.arraycopy(data, 0, raw, 0, length);
+
+        if (step)
+        {
+            steps(data, length, curve);
+            return true;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            int v = (int) (data[i] * curve[i]);
+            v = Math.min(v, Short.MAX_VALUE);
+            v = Math.max(v, Short.MIN_VALUE);
+            data[i] = (short) v;
+        }
+
+        return true;
+    }
+
+    // Apply the gain to the changes of a step sweep, the running sum
+    // carries from one sample to the next so this isn't vectorised
+    private static void steps(short data[], int length, float curve[])
+    {
+        float last = data[0];
+        float value = data[0];
+        for (int i = 1; i < length; i++)
+        {
+            value += (data[i] - last) * curve[i];
+            last = data[i];
+
+            int v = (int) value;
+            v = Math.min(v, Short.MAX_VALUE);
+            v = Math.max(v, Short.MIN_VALUE);
+            data[i] = (short) v;
+        }
+    }
+
+    // Get the curve for a length, calculating it if the settings
+    // have changed
+    private float[] curve(int length, int rate)
+    {
+        Cable cable = this.cable;
+        float slope = this.slope;
+        boolean enabled = this.enabled;
+
+        if (rate != this.rate || cable != current || slope != ramp ||
+            enabled != on)
+        {
+            this.rate = rate;
+            current = cable;
+            ramp = slope;
+            on = enabled;
+
+            for (int i = 0; i < curves.length; i++)
+                curves[i] = null;
+        }
+
+        // No gain without a lossy cable or a ramp
+        if (!enabled || length == 0 || (slope == 0 &&
+                                        (cable == null ||
+                                         cable.attenuation == 0)))
+            return null;
+
+        int k = Integer.numberOfTrailingZeros(Integer.highestOneBit(length));
+        if (curves[k] == null || curves[k].length != length)
+        {
+            float gains[] = (cable != null)? cable.gains(length, rate): null;
+            float curve[] = new float[length];
+            for (int i = 0; i < length; i++)
+            {
+                double db = slope * i / length;
+                if (gains != null)
+                    db += 20 * Math.log10(gains[i]);
+
+                curve[i] = (float) Math.pow(10, Math.min(LIMIT, db) / 20);
+            }
+
+            curves[k] = curve;
+        }
+
+        return curves[k];
+    }
+}
@@ -0,0 +1,149 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram
+//
+// Latency histogram in ns that may be recorded from any thread
+// without locking. Values below 64 have a bucket each, above that
+// each power of two is split into 32 buckets, so a value is within
+// about 3% of its bucket whatever its size.
+public class Histogram
+{
+    private static final int BITS = 5;
+    private static final int SUB = 1 << BITS;
+    private static final int BUCKETS = (64 - BITS) * SUB;
+
+    protected final String name;
+
+    private AtomicLongArray counts;
+    private AtomicLong count;
+    private AtomicLong total;
+    private AtomicLong max;
+
+    // Histogram
+    public Histogram(String name)
+    {
+        this.name = name;
+
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        total = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    // Reset, values recorded at the same time may be lost
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    // Record a value
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value))
+            m = max.get();
+    }
+
+    // Count
+    public long count()
+    {
+        return count.get();
+    }
+
+    // Mean
+    public long mean()
+    {
+        long n = count.get();
+        return (n > 0)? total.get() / n: 0;
+    }
+
+    // Max
+    public long max()
+    {
+        return max.get();
+    }
+
+    // Value at a percentile, the top of the bucket it is in
+    public long percentile(double percent)
+    {
+        long n = 0;
+        long counted[] = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counted[i] = counts.get(i);
+            n += counted[i];
+        }
+
+        if (n == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percent * n / 100));
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            target -= counted[i];
+            if (target <= 0)
+                return Math.min(limit(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    // Bucket index of a value
+    protected static int index(long value)
+    {
+        if (value < SUB * 2)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - BITS;
+        return (shift * SUB) + (int) (value >> shift);
+    }
+
+    // Largest value in a bucket
+    protected static long limit(int index)
+    {
+        if (index < SUB * 2)
+            return index;
+
+        int shift = index / SUB - 1;
+        long mantissa = index % SUB + SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,182 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Impedance
+//
+// Impedance profile along the cable by layer peeling. The sweep is
+// taken as a step response, compressed pulses are integrated first,
+// and the cumulative reflection coefficient is its ratio to the
+// incident step. Each sample is a layer, its own reflection is the
+// change in the cumulative one divided by the round trip transmission
+// through the layers before it, and its impedance follows from the
+// one before. Multiple reflections and loss are ignored, and the
+// sweep from before any gain is used, as the gain would change the
+// step level that the impedance is taken from. The profile
+// is only recalculated from the first sample that has changed since
+// the last sweep, so as the average settles less of it is redone.
+public class Impedance
+{
+    // Ohms from the centre to the edge of the display
+    protected static final float RANGE = 50;
+
+    // Profile is in tenths of an ohm from the line impedance
+    protected static final float SCALE = 10;
+
+    // Samples for the incident step
+    private static final int LEAD = 16;
+
+    // Changes smaller than this are ignored
+    private static final int TOLERANCE = 2;
+
+    // Largest layer reflection
+    private static final float LIMIT = 0.99f;
+
+    // Line impedance
+    protected float z0 = 50;
+
+    // First sample recalculated by the last process()
+    protected int from;
+
+    private short last[];
+    private float steps[];
+    private float impedances[];
+    private float transmissions[];
+
+    private int length;
+    private boolean step;
+    private float incident;
+    private float line;
+
+    // Impedance
+    public Impedance(int size)
+    {
+        last = new short[size];
+        steps = new float[size];
+        impedances = new float[size];
+        transmissions = new float[size];
+    }
+
+    // Reset
+    public void reset()
+    {
+        length = 0;
+    }
+
+    // Calculate the profile of a sweep into another
+    public void process(Sweep sweep, boolean step, Sweep profile)
+    {
+        short data[] = sweep.gained? sweep.raw: sweep.data;
+        int length = sweep.length;
+
+        // Find the first sample that has changed
+        from = 0;
+        if (length == this.length && step == this.step && z0 == line)
+        {
+            while (from < length &&
+                   Math.abs(data[from] - last[from]) <= TOLERANCE)
+                from++;
+        }
+
+        this.length = length;
+        this.step = step;
+        line = z0;
+
+        // Nothing has changed
+        if (from == length)
+            return;
+
+        // Step response, compressed pulses are integrated
+        float sum = (from > 0)? steps[from - 1]: 0;
+        for (int i = from; i < length; i++)
+        {
+            last[i] = data[i];
+            sum = step? data[i]: sum + data[i];
+            steps[i] = sum;
+        }
+
+        // Incident step, the largest in the lead
+        float max = 0;
+        for (int i = 0; i < Math.min(LEAD, length); i++)
+            if (Math.abs(steps[i]) > Math.abs(max))
+                max = steps[i];
+
+        // Start again if the incident step has changed
+        if (Math.abs(max - incident) > TOLERANCE)
+            from = 0;
+
+        incident = max;
+
+        // Peel the layers
+        float z = (from > 0)? impedances[from - 1]: z0;
+        float t = (from > 0)? transmissions[from - 1]: 1;
+        float rho = (from > 0)? cumulative(from - 1): 0;
+        for (int i = from; i < length; i++)
+        {
+            float r = 0;
+            if (i >= LEAD && incident != 0)
+            {
+                float c = cumulative(i);
+                r = Math.max(-LIMIT, Math.min(LIMIT, (c - rho) / t));
+                rho = c;
+
+                z *= (1 + r) / (1 - r);
+                t *= 1 - r * r;
+            }
+
+            else if (incident != 0)
+                rho = cumulative(i);
+
+            impedances[i] = z;
+            transmissions[i] = t;
+        }
+
+        // Tenths of an ohm from the line impedance
+        if (profile.data.length < length)
+            profile.data = new short[length];
+
+        for (int i = from; i < length; i++)
+        {
+            float v = (impedances[i] - z0) * SCALE;
+            profile.data[i] = (short) Math.max(Short.MIN_VALUE,
+                                               Math.min(Short.MAX_VALUE, v));
+        }
+
+        // Keep the parts of the profile that haven't changed
+        profile.length = length;
+        profile.time = sweep.time;
+    }
+
+    // Ohms
+    public float ohms(short value)
+    {
+        return z0 + value / SCALE;
+    }
+
+    // Cumulative reflection coefficient
+    private float cumulative(int i)
+    {
+        return steps[i] / incident - 1;
+    }
+}
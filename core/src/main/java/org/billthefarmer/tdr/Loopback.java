@@ -0,0 +1,184 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Loopback
+//
+// Finds the edge of a step played out and captured back in, for
+// probing the audio latency and bandwidth. The edge is where the step
+// crosses half its peak, the rise is between 10% and 90% of the
+// peak. An input resampled from a lower rate has nothing above the
+// lower rate's nyquist but rounding, so a cliff in the spectrum of
+// the noise before the step there shows up a rate that isn't real.
+// The step itself is no use for that, as the output it is played
+// through may run at the lower rate.
+public class Loopback
+{
+    // Peak must be this many times the noise
+    private static final int FACTOR = 8;
+
+    // Samples to look for the peak in after the step starts
+    private static final int WINDOW = 64;
+
+    // Samples in each block of noise transformed for its spectrum,
+    // and most blocks averaged
+    private static final int SPECTRUM = 512;
+    private static final int BLOCKS = 16;
+
+    // Edge and rise in samples
+    protected float edge;
+    protected float rise;
+
+    protected float peak;
+    protected float noise;
+
+    // Find the step in data from start, the data before start is
+    // the baseline, returns false if there isn't one
+    public boolean analyse(short data[], int start, int length)
+    {
+        if (start < 2 || start >= length)
+            return false;
+
+        // Baseline and noise
+        double sum = 0;
+        for (int i = 0; i < start; i++)
+            sum += data[i];
+
+        float base = (float) (sum / start);
+
+        sum = 0;
+        for (int i = 0; i < start; i++)
+            sum += (data[i] - base) * (data[i] - base);
+
+        noise = (float) Math.sqrt(sum / start);
+
+        // First sample well above the noise
+        float threshold = Math.max(noise * FACTOR, 64);
+        int first = -1;
+        for (int i = start; i < length; i++)
+        {
+            if (Math.abs(data[i] - base) > threshold)
+            {
+                first = i;
+                break;
+            }
+        }
+
+        if (first < 0)
+            return false;
+
+        // Peak with the same sign just after it, the input is AC
+        // coupled so the step decays
+        float sign = Math.signum(data[first] - base);
+        int stop = Math.min(length, first + WINDOW);
+        peak = 0;
+        for (int i = first; i < stop; i++)
+            peak = Math.max(peak, (data[i] - base) * sign);
+
+        // Go back to where it started to rise
+        int i = first;
+        while (i > start && (data[i - 1] - base) * sign > peak * 0.1f)
+            i--;
+
+        float t10 = crossing(data, i, stop, base, sign, peak * 0.1f);
+        float t50 = crossing(data, i, stop, base, sign, peak * 0.5f);
+        float t90 = crossing(data, i, stop, base, sign, peak * 0.9f);
+
+        edge = t50;
+        rise = t90 - t10;
+
+        return true;
+    }
+
+    // Ratio of the noise before start just above a fraction of the
+    // nyquist to the noise just below it, from the averaged spectra
+    // of windowed blocks, small if there is a cliff there
+    public float above(short data[], int start, float fraction)
+    {
+        int blocks = Math.min(start / SPECTRUM, BLOCKS);
+        if (blocks == 0)
+            return 0;
+
+        FFT fft = FFT.plan(SPECTRUM);
+        float block[] = new float[SPECTRUM];
+        double power[] = new double[SPECTRUM / 2];
+
+        for (int b = 0; b < blocks; b++)
+        {
+            int from = start - (b + 1) * SPECTRUM;
+
+            double sum = 0;
+            for (int i = 0; i < SPECTRUM; i++)
+                sum += data[from + i];
+
+            // Remove the offset and window it, so hum doesn't leak
+            float mean = (float) (sum / SPECTRUM);
+            for (int i = 0; i < SPECTRUM; i++)
+                block[i] = (data[from + i] - mean) *
+                    (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i /
+                                                  SPECTRUM));
+
+            fft.forward(block);
+            for (int k = 1; k < SPECTRUM / 2; k++)
+                power[k] += block[2 * k] * block[2 * k] +
+                    block[2 * k + 1] * block[2 * k + 1];
+        }
+
+        // Bands either side of the cutoff, clear of its transition
+        int cutoff = Math.round(fraction * SPECTRUM / 2);
+        double below = band(power, cutoff * 0.8f, cutoff * 0.95f);
+        double high = band(power, cutoff * 1.05f, cutoff * 1.25f);
+
+        return (below > 0)? (float) (high / below): 0;
+    }
+
+    // Mean power in the bins between two bins
+    private static double band(double power[], float from, float to)
+    {
+        int a = Math.max(1, Math.round(from));
+        int b = Math.min(power.length - 1, Math.round(to));
+
+        double sum = 0;
+        for (int k = a; k <= b; k++)
+            sum += power[k];
+
+        return (b >= a)? sum / (b - a + 1): 0;
+    }
+
+    // Interpolated index where the data first crosses a level
+    private static float crossing(short data[], int start, int stop,
+                                  float base, float sign, float level)
+    {
+        for (int i = Math.max(start, 1); i < stop; i++)
+        {
+            float a = (data[i - 1] - base) * sign;
+            float b = (data[i] - base) * sign;
+
+            if (a < level && b >= level)
+                return i - 1 + (level - a) / (b - a);
+        }
+
+        return start;
+    }
+}
@@ -0,0 +1,194 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Arrays;
+
+// Matched
+//
+// Matched filter, cross correlates each sweep with the stimulus
+// template using the FFT, which compresses a chirp or maximum length
+// sequence into an impulse at each reflection. The chirp template is
+// Hann windowed, trading a wider peak for lower range sidelobes. A
+// sequence played at the input rate is correlated periodically, the
+// sweep and the stimulus after it are folded onto one period of the
+// sequence, which leaves no sidelobes at all. The output is scaled
+// so a copy of the stimulus gives its amplitude, and the highest
+// sidelobe of the template relative to its peak is kept for the
+// detector. Buffers are only allocated when the size changes.
+public class Matched
+{
+    // Stimulus mode of the template and its length
+    protected int mode;
+    protected int length;
+
+    // Highest sidelobe of a copy of the stimulus relative to its peak
+    protected float sidelobe;
+
+    private float template[];
+    private float energy;
+    private boolean periodic;
+
+    private FFT fft;
+    private float data[];
+    private float spectrum[];
+
+    // Set the template from the stimulus
+    public void set(Stimulus stimulus, int mode, int sample)
+    {
+        this.mode = mode;
+        length = stimulus.template(mode, sample, null);
+
+        float reference[] = new float[length];
+        stimulus.template(mode, sample, reference);
+
+        // Window a chirp
+        template = new float[length];
+        for (int i = 0; i < length; i++)
+            template[i] = (mode == Stimulus.CHIRP && length > 1)?
+                (float) (reference[i] * (0.5 - 0.5 *
+                                         Math.cos(2 * Math.PI * i /
+                                                  (length - 1)))):
+                reference[i];
+
+        // Output for a copy of the stimulus
+        energy = 0;
+        for (int i = 0; i < length; i++)
+            energy += template[i] * reference[i];
+
+        // A sequence at the rate it was played is a whole period
+        periodic = mode == Stimulus.MLS && sample == stimulus.rate;
+        sidelobe = (periodic || length == 0)? 0: sidelobe(reference);
+
+        // Recalculate the spectrum
+        fft = null;
+    }
+
+    // Filter count samples from the history, which needs length more
+    public void process(short history[], int mask, long start, int count,
+                        short out[])
+    {
+        boolean fold = periodic && count <= length;
+        int n = fold? Integer.highestOneBit(length * 2 - 1) << 1:
+            Integer.highestOneBit(count + length - 1) << 1;
+
+        // Template spectrum
+        if (fft == null || fft.size != n)
+        {
+            fft = FFT.plan(n);
+            data = new float[n];
+            spectrum = new float[n];
+
+            System.arraycopy(template, 0, spectrum, 0, length);
+            fft.forward(spectrum);
+        }
+
+        // Sweep spectrum, folded onto two periods of the sequence
+        if (fold)
+        {
+            Arrays.fill(data, 0);
+            for (int i = 0, j = 0; i < count + length; i++)
+            {
+                data[j] += history[(int) (start + i) & mask];
+                if (++j == length)
+                    j = 0;
+            }
+
+            System.arraycopy(data, 0, data, length, length);
+        }
+
+        else
+            for (int i = 0; i < n; i++)
+                data[i] = (i < count + length)?
+                    history[(int) (start + i) & mask]: 0;
+
+        fft.forward(data);
+
+        // Multiply by the conjugate of the template
+        fft.correlate(data, spectrum);
+        fft.inverse(data);
+
+        // Every other lag of a periodic sequence correlates to minus
+        // one, so the sum over a period puts it back
+        float offset = 0;
+        if (fold)
+            for (int i = 0; i < length; i++)
+                offset += data[i];
+
+        // Scale and clip
+        float scale = 1 / (fold? energy + 1: energy);
+        for (int i = 0; i < count; i++)
+        {
+            float v = (data[i] + offset) * scale;
+            out[i] = (short) Math.max(Short.MIN_VALUE,
+                                      Math.min(Short.MAX_VALUE, v));
+        }
+    }
+
+    // Highest sidelobe of the template correlated with the stimulus,
+    // outside the main lobe on either side of the peak
+    private float sidelobe(float reference[])
+    {
+        int n = Integer.highestOneBit(length * 2 - 1) << 1;
+        FFT fft = FFT.plan(n);
+
+        float a[] = new float[n];
+        float b[] = new float[n];
+        System.arraycopy(reference, 0, a, 0, length);
+        System.arraycopy(template, 0, b, 0, length);
+
+        fft.forward(a);
+        fft.forward(b);
+        fft.correlate(a, b);
+        fft.inverse(a);
+
+        float peak = Math.abs(a[0]);
+        float max = 0;
+        for (int side = 1; side >= -1; side -= 2)
+        {
+            // The main lobe ends where the local maxima, which
+            // follow the carrier of a chirp, stop getting smaller
+            float last = peak;
+            boolean lobe = true;
+            for (int i = 1; i < length - 1; i++)
+            {
+                float v = Math.abs(a[(i * side) & (n - 1)]);
+                if (v < Math.abs(a[((i - 1) * side) & (n - 1)]) ||
+                    v < Math.abs(a[((i + 1) * side) & (n - 1)]))
+                    continue;
+
+                if (lobe && v <= last)
+                    last = v;
+
+                else
+                {
+                    lobe = false;
+                    max = Math.max(max, v);
+                }
+            }
+        }
+
+        return (peak > 0)? max / peak: 0;
+    }
+}
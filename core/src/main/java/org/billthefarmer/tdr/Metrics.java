@@ -0,0 +1,132 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Metrics
+//
+// Latency of each stage of the hot path, from the audio read through
+// processing to the sweep being drawn, and the pulse write. The
+// latency is from the time the pulse that started the sweep was
+// emitted to the time the sweep is drawn, which includes the time it
+// waits to be drawn. The objects allocated by the capture and draw
+// threads on the hot path are counted, and the sweeps the store has
+// to allocate rather than reuse from its pool, so they can be
+// compared with the number of sweeps.
+public class Metrics
+{
+    protected Histogram read;
+    protected Histogram write;
+    protected Histogram process;
+    protected Histogram draw;
+    protected Histogram latency;
+
+    protected AtomicLong sweeps;
+    protected AtomicLong drawn;
+    protected AtomicLong allocations;
+    protected AtomicLong sweepAllocations;
+
+    private Histogram stages[];
+
+    // Metrics
+    public Metrics()
+    {
+        read = new Histogram("Read");
+        write = new Histogram("Write");
+        process = new Histogram("Process");
+        draw = new Histogram("Draw");
+        latency = new Histogram("Latency");
+
+        stages = new Histogram[] {read, write, process, draw, latency};
+
+        sweeps = new AtomicLong();
+        drawn = new AtomicLong();
+        allocations = new AtomicLong();
+        sweepAllocations = new AtomicLong();
+    }
+
+    // Reset
+    public void reset()
+    {
+        for (Histogram stage: stages)
+            stage.reset();
+
+        sweeps.set(0);
+        drawn.set(0);
+        allocations.set(0);
+        sweepAllocations.set(0);
+    }
+
+    // Count objects allocated on the hot path
+    public void allocated(int count)
+    {
+        allocations.addAndGet(count);
+    }
+
+    // Count a sweep allocated by the store
+    public void sweepAllocated()
+    {
+        sweepAllocations.incrementAndGet();
+    }
+
+    // Print a table of the stages in ms
+    public void print(PrintWriter writer)
+    {
+        writer.format(Locale.ROOT, "%-8s %8s %8s %8s %8s %8s %8s%n",
+                      "Stage", "Count", "Mean", "p50", "p99", "p99.9",
+                      "Max");
+        for (Histogram stage: stages)
+            writer.format(Locale.ROOT,
+                          "%-8s %8d %8.3f %8.3f %8.3f %8.3f %8.3f%n",
+                          stage.name, stage.count(), stage.mean() / 1e6,
+                          stage.percentile(50) / 1e6,
+                          stage.percentile(99) / 1e6,
+                          stage.percentile(99.9) / 1e6,
+                          stage.max() / 1e6);
+
+        long n = sweeps.get();
+        writer.format(Locale.ROOT, "%nSweeps %d, drawn %d%n", n, drawn.get());
+        writer.format(Locale.ROOT, "Allocations %d, %.3f per sweep%n",
+                      allocations.get(),
+                      (n > 0)? (double) allocations.get() / n: 0.0);
+        writer.format(Locale.ROOT,
+                      "Sweep allocations %d, %.3f per sweep%n",
+                      sweepAllocations.get(),
+                      (n > 0)? (double) sweepAllocations.get() / n: 0.0);
+        writer.flush();
+    }
+
+    // To string
+    @Override
+    public String toString()
+    {
+        StringWriter writer = new StringWriter();
+        print(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
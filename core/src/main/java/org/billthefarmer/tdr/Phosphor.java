@@ -0,0 +1,186 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Arrays;
+
+// Phosphor
+//
+// Digital phosphor, accumulates the pixels hit by each trace into a
+// histogram which decays each time it is rendered, and renders it as
+// an intensity map of ARGB pixels. Only the rows that have been hit
+// since they last decayed to nothing are decayed and rendered.
+public class Phosphor
+{
+    // Hit weight, and default decay shift, about one and a half
+    // seconds to half intensity at sixty frames a second
+    private static final int HIT = 256;
+    private static final int DECAY = 7;
+
+    protected int width;
+    protected int height;
+
+    protected int hits[];
+    protected int pixels[];
+
+    // Rows rendered by the last render
+    protected int from;
+    protected int to;
+
+    protected volatile int decay;
+
+    // Rows with hits
+    private int top;
+    private int bottom;
+
+    private static final int colours[] = colours();
+
+    // Phosphor
+    public Phosphor(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+
+        hits = new int[width * height];
+        pixels = new int[width * height];
+        decay = DECAY;
+
+        clear();
+    }
+
+    // Clear
+    public void clear()
+    {
+        Arrays.fill(hits, 0);
+        Arrays.fill(pixels, 0);
+
+        top = height;
+        bottom = -1;
+        from = height;
+        to = -1;
+    }
+
+    // Add the hits from a trace, the y values are from the centre
+    public void add(Vertices vertices)
+    {
+        float lines[] = vertices.lines;
+        for (int i = 0; i < vertices.lineCount; i += 4)
+            line(Math.round(lines[i]), Math.round(lines[i + 1]) + height / 2,
+                 Math.round(lines[i + 2]),
+                 Math.round(lines[i + 3]) + height / 2);
+
+        float points[] = vertices.points;
+        for (int i = 0; i < vertices.pointCount; i += 2)
+            plot(Math.round(points[i]),
+                 Math.round(points[i + 1]) + height / 2);
+    }
+
+    // Decay the hits and render the rows that have any, from and to
+    // are set to the rows rendered
+    public void render()
+    {
+        from = top;
+        to = bottom;
+
+        int shift = decay;
+        int first = height;
+        int last = -1;
+
+        for (int y = from; y <= to; y++)
+        {
+            boolean any = false;
+            int end = (y + 1) * width;
+
+            for (int i = y * width; i < end; i++)
+            {
+                int h = hits[i];
+                if (h == 0)
+                    continue;
+
+                h = Math.max(h - (h >> shift) - 1, 0);
+                hits[i] = h;
+                pixels[i] = colours[32 - Integer.numberOfLeadingZeros(h)];
+                any = true;
+            }
+
+            if (any)
+            {
+                first = Math.min(first, y);
+                last = y;
+            }
+        }
+
+        // The rows that still have hits need rendering next time
+        top = first;
+        bottom = last;
+    }
+
+    // Add hits along a line
+    private void line(int x0, int y0, int x1, int y1)
+    {
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        int steps = Math.max(dx, dy);
+
+        // Don't hit the end, it's the start of the next line
+        for (int i = 0; i < steps; i++)
+            plot(x0 + (x1 - x0) * i / steps, y0 + (y1 - y0) * i / steps);
+
+        if (steps == 0)
+            plot(x0, y0);
+    }
+
+    // Add a hit
+    private void plot(int x, int y)
+    {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return;
+
+        int i = y * width + x;
+        hits[i] = Math.min(hits[i] + HIT, Integer.MAX_VALUE / 2);
+
+        if (y < top)
+            top = y;
+
+        if (y > bottom)
+            bottom = y;
+    }
+
+    // Colours for the number of bits in the hits, brighter green,
+    // then white when saturated
+    private static int[] colours()
+    {
+        int colours[] = new int[33];
+        for (int i = 1; i < colours.length; i++)
+        {
+            float t = Math.min(i / 16f, 1);
+            int g = Math.round(32 + 223 * t);
+            int w = Math.round(Math.max(t - 0.75f, 0) * 4 * 255);
+
+            colours[i] = 0xff000000 | (w << 16) | (g << 8) | w;
+        }
+
+        return colours;
+    }
+}
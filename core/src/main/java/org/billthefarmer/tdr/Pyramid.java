@@ -0,0 +1,153 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Pyramid
+//
+// Min/max decimation pyramid of a sweep. Level k holds the min and
+// max of each block of 2^k samples, level 0 being the sweep itself,
+// so the min and max of any range of samples can be found from at
+// most two blocks on each level.
+public class Pyramid
+{
+    protected short min;
+    protected short max;
+
+    private short mins[];
+    private short maxs[];
+    private int offsets[];
+    private int levels;
+
+    private short data[];
+    private int length;
+
+    // Pyramid
+    public Pyramid(int size)
+    {
+        // Count the levels and their offsets
+        levels = 1;
+        for (int n = size; n > 1; n = (n + 1) / 2)
+            levels++;
+
+        offsets = new int[levels + 1];
+        int total = 0;
+        for (int k = 1; k < levels; k++)
+        {
+            offsets[k] = total;
+            total += (size + (1 << k) - 1) >> k;
+        }
+
+        mins = new short[total];
+        maxs = new short[total];
+    }
+
+    // Update the blocks covering the samples between from and to
+    public void update(short data[], int length, int from, int to)
+    {
+        this.data = data;
+        this.length = length;
+
+        for (int k = 1; k < levels; k++)
+        {
+            // Blocks on this level
+            int n = (length + (1 << k) - 1) >> k;
+
+            from >>= 1;
+            to = Math.min((to + 1) >> 1, n);
+
+            int o = offsets[k];
+            int p = offsets[k - 1];
+
+            for (int b = from; b < to; b++)
+            {
+                int c = b * 2;
+                short lo;
+                short hi;
+
+                // Level 1 comes from the data
+                if (k == 1)
+                {
+                    lo = hi = data[c];
+                    if (c + 1 < length)
+                    {
+                        lo = (short) Math.min(lo, data[c + 1]);
+                        hi = (short) Math.max(hi, data[c + 1]);
+                    }
+                }
+
+                else
+                {
+                    lo = mins[p + c];
+                    hi = maxs[p + c];
+                    if (c + 1 < ((length + (1 << (k - 1)) - 1) >> (k - 1)))
+                    {
+                        lo = (short) Math.min(lo, mins[p + c + 1]);
+                        hi = (short) Math.max(hi, maxs[p + c + 1]);
+                    }
+                }
+
+                mins[o + b] = lo;
+                maxs[o + b] = hi;
+            }
+        }
+    }
+
+    // Find the min and max of the samples between from and to
+    public void range(int from, int to)
+    {
+        min = Short.MAX_VALUE;
+        max = Short.MIN_VALUE;
+
+        from = Math.max(from, 0);
+        to = Math.min(to, length);
+
+        for (int k = 0; from < to; k++)
+        {
+            if ((from & 1) != 0)
+                block(k, from++);
+
+            if ((to & 1) != 0)
+                block(k, --to);
+
+            from >>= 1;
+            to >>= 1;
+        }
+    }
+
+    // Include a block in the min and max
+    private void block(int k, int b)
+    {
+        if (k == 0)
+        {
+            min = (short) Math.min(min, data[b]);
+            max = (short) Math.max(max, data[b]);
+        }
+
+        else
+        {
+            min = (short) Math.min(min, mins[offsets[k] + b]);
+            max = (short) Math.max(max, maxs[offsets[k] + b]);
+        }
+    }
+}
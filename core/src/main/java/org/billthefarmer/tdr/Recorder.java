@@ -0,0 +1,268 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Recorder
+//
+// Streams captured frames and sweep metadata to an append only file,
+// mapped a region at a time so writing a record is only a copy into
+// memory and the system writes it back. The file has a header,
+// followed by frame and sweep records, and an index of the sweep
+// records is appended when it is closed. The index is found from the
+// record headers, so nothing grows while recording, and closing can
+// be left to another thread. Records are little endian and padded to
+// eight bytes, each starts with its type and size.
+public class Recorder
+{
+    protected static final int MAGIC = 0x31524454;
+    protected static final int VERSION = 1;
+
+    // Header, magic, version, rate, frames, sweeps, index, created
+    protected static final int HEADER = 64;
+
+    // Record types
+    protected static final int FRAMES = 1;
+    protected static final int SWEEP = 2;
+    protected static final int INDEX = 3;
+
+    // Frames, type, size, position, count, samples
+    protected static final int FRAMES_SIZE = 24;
+
+    // Sweep, type, size, time, length, rate, mode, output rate, period
+    protected static final int SWEEP_SIZE = 40;
+
+    private static final int REGION = 1 << 20;
+
+    protected File file;
+    protected IOException error;
+
+    protected long frames;
+    protected int sweeps;
+
+    private RandomAccessFile access;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ShortBuffer shorts;
+    private long base;
+    private int rate;
+
+    // Recorder
+    public Recorder(File file, int rate) throws IOException
+    {
+        this.file = file;
+        this.rate = rate;
+
+        access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+
+        // Write the header, the counts are updated on close
+        base = HEADER;
+        header(0);
+        map(REGION);
+    }
+
+    // Record frames captured from position
+    public void frames(long position, short data[], int size)
+    {
+        int bytes = FRAMES_SIZE + align(size * 2);
+        if (!reserve(bytes))
+            return;
+
+        int start = buffer.position();
+        buffer.putInt(FRAMES);
+        buffer.putInt(bytes);
+        buffer.putLong(position);
+        buffer.putInt(size);
+        buffer.putInt(0);
+
+        shorts.position(buffer.position() / 2);
+        shorts.put(data, 0, size);
+        buffer.position(start + bytes);
+
+        frames += size;
+    }
+
+    // Record a sweep
+    public void sweep(long time, int length, int rate, int mode, int output,
+                      double period)
+    {
+        if (!reserve(SWEEP_SIZE))
+            return;
+
+        sweeps++;
+        buffer.putInt(SWEEP);
+        buffer.putInt(SWEEP_SIZE);
+        buffer.putLong(time);
+        buffer.putInt(length);
+        buffer.putInt(rate);
+        buffer.putInt(mode);
+        buffer.putInt(output);
+        buffer.putDouble(period);
+    }
+
+    // Close, writing the index and header, which may be done on
+    // another thread once nothing more is recorded
+    public void close() throws IOException
+    {
+        if (channel == null)
+            return;
+
+        try
+        {
+            long end = base;
+            if (buffer != null)
+            {
+                buffer.force();
+                end += buffer.position();
+            }
+
+            // Append the index
+            long index[] = index(end);
+            int bytes = 8 + index.length * 8;
+            ByteBuffer b = ByteBuffer.allocate(bytes);
+            b.order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(INDEX);
+            b.putInt(bytes);
+            for (long offset : index)
+                b.putLong(offset);
+
+            b.flip();
+            write(b, end);
+
+            header(end);
+            channel.truncate(end + bytes);
+            channel.force(true);
+        }
+
+        finally
+        {
+            buffer = null;
+            shorts = null;
+            channel = null;
+            access.close();
+        }
+    }
+
+    // Find the sweep records before the end from the record headers
+    private long[] index(long end) throws IOException
+    {
+        long index[] = new long[sweeps];
+        ByteBuffer b = ByteBuffer.allocate(8);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+
+        int n = 0;
+        for (long position = HEADER; position + 8 <= end && n < sweeps;)
+        {
+            b.clear();
+            while (b.hasRemaining())
+                if (channel.read(b, position + b.position()) < 0)
+                    throw new IOException("Truncated: " + file);
+
+            int type = b.getInt(0);
+            int bytes = b.getInt(4);
+            if (bytes < 8)
+                break;
+
+            if (type == SWEEP)
+                index[n++] = position;
+
+            position += bytes;
+        }
+
+        return (n == sweeps)? index: Arrays.copyOf(index, n);
+    }
+
+    // Write the header
+    private void header(long offset) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(HEADER);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(MAGIC);
+        b.putInt(VERSION);
+        b.putInt(rate);
+        b.putInt(0);
+        b.putLong(frames);
+        b.putLong(sweeps);
+        b.putLong(offset);
+        b.putLong(System.currentTimeMillis());
+
+        b.clear();
+        write(b, 0);
+    }
+
+    // Write a buffer at a position
+    private void write(ByteBuffer b, long position) throws IOException
+    {
+        while (b.hasRemaining())
+            position += channel.write(b, position);
+    }
+
+    // Make room for a record, mapping the next region if necessary
+    private boolean reserve(int bytes)
+    {
+        if (error != null || buffer == null)
+            return false;
+
+        if (buffer.remaining() >= bytes)
+            return true;
+
+        try
+        {
+            base += buffer.position();
+            map(Math.max(REGION, bytes));
+            return true;
+        }
+
+        catch (IOException e)
+        {
+            error = e;
+            buffer = null;
+            return false;
+        }
+    }
+
+    // Map a region from the base
+    private void map(int size) throws IOException
+    {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        shorts = buffer.asShortBuffer();
+    }
+
+    // Round up to eight bytes
+    private static int align(int bytes)
+    {
+        return (bytes + 7) & ~7;
+    }
+}
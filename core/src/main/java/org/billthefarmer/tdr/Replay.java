@@ -0,0 +1,346 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+// Replay
+//
+// Reads the frames of a file written by Recorder as a Source, at full
+// speed or paced to real time, so a recording can be processed by the
+// same pipeline as a live capture. The stimulus and sweep length are
+// updated from the sweep records as they are passed. It can also be
+// run on its own to process recordings in batch.
+public class Replay implements Source
+{
+    private static final int REGION = 1 << 20;
+
+    protected File file;
+
+    // Sample rate
+    protected int rate;
+
+    // From the last sweep record
+    protected Stimulus stimulus;
+    protected volatile int length;
+    protected long sweeps;
+
+    protected boolean realtime;
+    protected boolean loop;
+
+    private RandomAccessFile access;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ShortBuffer shorts;
+    private long base;
+    private long end;
+
+    private int remaining;
+    private long frames;
+    private long started;
+
+    // Replay
+    public Replay(File file) throws IOException
+    {
+        this.file = file;
+
+        access = new RandomAccessFile(file, "r");
+
+        // Close the file if it can't be read
+        try
+        {
+            channel = access.getChannel();
+            end = channel.size();
+
+            // Check the header
+            if (end < Recorder.HEADER)
+                throw new IOException("Not a recording: " + file);
+
+            map(0, Recorder.HEADER);
+            if (buffer.getInt(0) != Recorder.MAGIC ||
+                buffer.getInt(4) != Recorder.VERSION)
+                throw new IOException("Not a recording: " + file);
+
+            rate = buffer.getInt(8);
+
+            // Stop at the index if the recording was closed
+            long index = buffer.getLong(32);
+            if (index > 0 && index <= end)
+                end = index;
+
+            stimulus = new Stimulus();
+            rewind();
+
+            // Take the settings from the first sweep record, which
+            // follows the frames of the sweep
+            while (sweeps == 0 && next())
+            {
+                skip(remaining * 2);
+                remaining = 0;
+            }
+
+            sweeps = 0;
+            rewind();
+        }
+
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    // Rewind to the first record
+    public void rewind()
+    {
+        first();
+        frames = 0;
+        started = 0;
+    }
+
+    // Go to the first record
+    private void first()
+    {
+        base = Recorder.HEADER;
+        buffer = null;
+        remaining = 0;
+    }
+
+    // Close
+    public void close() throws IOException
+    {
+        buffer = null;
+        shorts = null;
+        access.close();
+    }
+
+    // Read frames
+    @Override
+    public int read(short data[], int offset, int size)
+    {
+        int n = 0;
+
+        try
+        {
+            while (n < size)
+            {
+                if (remaining == 0 && !next())
+                    break;
+
+                int count = Math.min(size - n, remaining);
+                shorts.position((buffer.position() / 2));
+                shorts.get(data, offset + n, count);
+                buffer.position(buffer.position() + count * 2);
+
+                remaining -= count;
+                n += count;
+            }
+        }
+
+        catch (IOException e)
+        {
+            return -1;
+        }
+
+        frames += n;
+        if (realtime)
+            pace();
+
+        return n;
+    }
+
+    // Find the next frames record, passing sweep records, returns
+    // false at the end
+    private boolean next() throws IOException
+    {
+        boolean wrapped = false;
+
+        while (true)
+        {
+            // Skip the padding after the last frames
+            if (buffer != null)
+                skip(-buffer.position() & 7);
+
+            if (!reserve(8) || buffer.getInt(buffer.position()) == 0)
+            {
+                if (!loop || wrapped)
+                    return false;
+
+                // Start again without resetting the pacing
+                first();
+                wrapped = true;
+                continue;
+            }
+
+            int start = buffer.position();
+            int type = buffer.getInt(start);
+            int bytes = buffer.getInt(start + 4);
+
+            if (bytes < 8 || !reserve(bytes))
+                return false;
+
+            start = buffer.position();
+            switch (type)
+            {
+            case Recorder.FRAMES:
+                remaining = buffer.getInt(start + 16);
+                buffer.position(start + Recorder.FRAMES_SIZE);
+                if (remaining > 0)
+                    return true;
+
+                break;
+
+            case Recorder.SWEEP:
+                sweep(start);
+                buffer.position(start + bytes);
+                break;
+
+            default:
+                buffer.position(start + bytes);
+                break;
+            }
+        }
+    }
+
+    // Update the settings from a sweep record
+    private void sweep(int start)
+    {
+        length = buffer.getInt(start + 16);
+        int mode = buffer.getInt(start + 24);
+        int output = buffer.getInt(start + 28);
+        double period = buffer.getDouble(start + 32);
+
+        if (output > 0)
+        {
+            stimulus.rate = output;
+            stimulus.length = (int) ((long) length * output / rate);
+            stimulus.period = (int) Math.round(period * output / rate);
+        }
+
+        stimulus.mode = mode;
+        sweeps++;
+    }
+
+    // Skip bytes
+    private void skip(int bytes)
+    {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    // Make sure bytes from the current position are mapped, returns
+    // false if they are past the end
+    private boolean reserve(int bytes) throws IOException
+    {
+        if (buffer != null && buffer.remaining() >= bytes)
+            return true;
+
+        if (buffer != null)
+            base += buffer.position();
+
+        if (base + bytes > end)
+            return false;
+
+        map(base, (int) Math.min(Math.max(REGION, bytes), end - base));
+        return true;
+    }
+
+    // Map a region
+    private void map(long position, int size) throws IOException
+    {
+        base = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        shorts = buffer.asShortBuffer();
+    }
+
+    // Sleep until the frames are due
+    private void pace()
+    {
+        long now = System.nanoTime();
+        if (started == 0)
+            started = now;
+
+        long due = started + frames * 1000000000L / rate;
+        if (due > now)
+        {
+            try
+            {
+                Thread.sleep((due - now) / 1000000,
+                             (int) ((due - now) % 1000000));
+            }
+
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Process recordings in batch, printing the reflections found in
+    // the last sweep of each
+    public static void main(String args[]) throws IOException
+    {
+        short data[] = new short[4096];
+
+        for (String name: args)
+        {
+            Replay replay = new Replay(new File(name));
+            Capture capture = new Capture(Capture.HISTORY);
+
+            capture.stimulus = replay.stimulus;
+            capture.sample = replay.rate;
+            capture.reset();
+
+            long published = 0;
+            int size;
+            while ((size = replay.read(data, 0, data.length)) > 0)
+            {
+                capture.length = replay.length;
+                published += capture.process(data, size);
+            }
+
+            replay.close();
+
+            System.out.printf(Locale.ROOT, "%s: %d frames, %d sweeps\n",
+                              name, replay.frames, published);
+
+            Sweep sweep = capture.store.read(null);
+            if (sweep == null)
+                continue;
+
+            for (int i = 0; i < sweep.reflections; i++)
+                System.out.printf(Locale.ROOT, "%10.3f m %8.0f\n",
+                                  Distance.metres(sweep.positions[i],
+                                                  replay.rate),
+                                  sweep.amplitudes[i]);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Stimulus
+//
+// Generates the output pulse stream and timestamps the leading edge
+// of each pulse by output frame position. The stimulus is either a
+// square wave step, a linear chirp, or a maximum length sequence.
+// They all start with a positive edge for Sync to find. The sequence
+// is the shortest one at least as long as the sweep, so the matched
+// filter can correlate it periodically. With the time a frame was
+// presented from the track, the time each recent pulse was emitted
+// can be found for the edge Sync finds in the capture.
+public class Stimulus
+{
+    protected static final int STEP = 0;
+    protected static final int CHIRP = 1;
+    protected static final int MLS = 2;
+
+    protected static final int AMPLITUDE = 30000;
+
+    // Chirp length in output frames and frequencies
+    private static final int CHIRP_FRAMES = 1024;
+    private static final double LOWER = 1000;
+    private static final double UPPER = 20000;
+
+    // Maximum length sequences of order 9 to 15, feedback taps of
+    // the shift register for each order
+    private static final int ORDER = 9;
+    private static final int taps[] =
+    {
+        0x11, 0x9, 0x5, 0x107, 0x27, 0x1007, 0x3
+    };
+    private static final boolean sequences[][] = sequences();
+
+    // Recent pulses kept, and how far an edge may seem to be
+    // captured before its pulse was emitted in ns
+    private static final int PULSES = 64;
+    private static final long EARLY = 1000000;
+
+    // Settings, applied at the start of the next pulse
+    protected volatile int mode;
+    protected volatile int period;
+
+    // Output sample rate
+    protected volatile int rate;
+
+    // Sweep length in output frames
+    protected volatile int length;
+
+    // Number of pulses, the leading edge of each recent pulse by
+    // output frame, and the time output frame zero was presented
+    protected volatile long count;
+    private long positions[] = new long[PULSES];
+    private volatile long origin;
+
+    private long frames;
+    private int current;
+    private int type;
+    private int phase;
+    private boolean sequence[];
+
+    // Reset
+    public void reset()
+    {
+        frames = 0;
+        phase = 0;
+        origin = 0;
+    }
+
+    // Fill a buffer
+    public void fill(short buffer[], int size)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            // Start of a pulse
+            if (phase == 0)
+            {
+                current = period;
+                type = mode;
+                sequence = sequence(length);
+
+                // Timestamp the leading edge
+                positions[(int) count & (PULSES - 1)] = frames + i;
+                count++;
+            }
+
+            buffer[i] = (type == STEP)?
+                ((phase < current / 2)? Short.MAX_VALUE: 0):
+                (short) Math.round(AMPLITUDE * value(type, phase, rate,
+                                                     sequence));
+
+            if (++phase >= current)
+                phase = 0;
+        }
+
+        frames += size;
+    }
+
+    // Set the time an output frame was presented
+    public void timestamp(long frame, long nanos)
+    {
+        if (rate > 0)
+            origin = nanos - (long) (frame * 1e9 / rate);
+    }
+
+    // Time the latest pulse was emitted that an edge captured at a
+    // time could have come from, or zero if it isn't known
+    public long emitted(long nanos)
+    {
+        long o = origin;
+        int r = rate;
+        if (o == 0 || r <= 0)
+            return 0;
+
+        // Leave the slot being written alone
+        long n = count;
+        for (long i = n - 1; i >= 0 && i > n - PULSES; i--)
+        {
+            long t = o + (long) (positions[(int) i & (PULSES - 1)] * 1e9 / r);
+            if (t <= nanos + EARLY)
+                return t;
+        }
+
+        return 0;
+    }
+
+    // Duration in output frames, not including a step
+    public int duration(int mode)
+    {
+        switch (mode)
+        {
+        case CHIRP:
+            return CHIRP_FRAMES;
+
+        case MLS:
+            return sequence(length).length;
+
+        default:
+            return 0;
+        }
+    }
+
+    // Template of the stimulus at the input sample rate, normalised
+    // to one, returns the length
+    public int template(int mode, int sample, float template[])
+    {
+        int rate = this.rate;
+        boolean sequence[] = sequence(this.length);
+        int length = (int) Math.ceil((double) duration(mode) *
+                                     sample / rate);
+        if (template != null)
+            for (int i = 0; i < length; i++)
+                template[i] = (float) value(mode, (double) i * rate / sample,
+                                            rate, sequence);
+
+        return length;
+    }
+
+    // Value at a time in output frames
+    private static double value(int mode, double t, int rate,
+                                boolean sequence[])
+    {
+        switch (mode)
+        {
+        case CHIRP:
+            if (t >= CHIRP_FRAMES)
+                return 0;
+
+            // Linear chirp starting at a peak, so it has an edge
+            double upper = Math.min(UPPER, rate * 0.4);
+            double s = t / rate;
+            double d = (double) CHIRP_FRAMES / rate;
+            return Math.cos(2 * Math.PI * (LOWER * s + (upper - LOWER) *
+                                           s * s / (2 * d)));
+
+        case MLS:
+            if (t >= sequence.length)
+                return 0;
+
+            return sequence[(int) t]? 1: -1;
+
+        default:
+            return 0;
+        }
+    }
+
+    // Shortest sequence at least length frames long
+    private static boolean[] sequence(int length)
+    {
+        for (boolean sequence[] : sequences)
+            if (sequence.length >= length)
+                return sequence;
+
+        return sequences[sequences.length - 1];
+    }
+
+    // Maximum length sequences, each starting with as many ones as
+    // its order
+    private static boolean[][] sequences()
+    {
+        boolean sequences[][] = new boolean[taps.length][];
+
+        for (int j = 0; j < taps.length; j++)
+        {
+            int order = ORDER + j;
+            boolean sequence[] = new boolean[(1 << order) - 1];
+
+            int state = (1 << order) - 1;
+            for (int i = 0; i < sequence.length; i++)
+            {
+                sequence[i] = (state & 1) != 0;
+
+                int bit = Integer.bitCount(state & taps[j]) & 1;
+                state = (state >> 1) | (bit << (order - 1));
+            }
+
+            sequences[j] = sequence;
+        }
+
+        return sequences;
+    }
+}
@@ -0,0 +1,126 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Store
+//
+// Sweeps exchanged between the capture thread and the display without
+// copying. The producer fills its back sweep and swaps it into the
+// middle with publish(), the consumer swaps its front sweep for the
+// middle with read() if there is a new one. Neither waits for the
+// other, and as each sweep is only owned by one side at a time it
+// can't be torn. Sweeps are sized for the range, and kept in a pool
+// to be reused when the range changes back.
+public class Store
+{
+    private static final int BUFFERS = 3;
+
+    // Counts the sweeps allocated on the capture thread
+    protected Metrics metrics;
+
+    private AtomicReference<Sweep> middle;
+    private ArrayList<Sweep> pool;
+
+    // Owned by the producer
+    private Sweep back;
+
+    // Store
+    public Store()
+    {
+        middle = new AtomicReference<>();
+        pool = new ArrayList<>();
+    }
+
+    // Allocate the sweeps for a size if not already in the pool, so
+    // the producer doesn't allocate when the range changes
+    public synchronized void reserve(int size)
+    {
+        int n = 0;
+        for (Sweep sweep: pool)
+            if (sweep.data.length == size)
+                n++;
+
+        for (; n < BUFFERS; n++)
+            pool.add(new Sweep(size));
+    }
+
+    // Get the back sweep for writing, swapping it for one from the
+    // pool if it is the wrong size
+    public Sweep acquire(int size)
+    {
+        if (back == null || back.data.length != size)
+        {
+            if (back != null)
+                recycle(back);
+
+            back = obtain(size);
+        }
+
+        return back;
+    }
+
+    // Publish the back sweep
+    public void publish()
+    {
+        back.fresh = true;
+        back = middle.getAndSet(back);
+    }
+
+    // Swap the front sweep for the latest one, returns the front
+    // sweep if there is no new one
+    public Sweep read(Sweep front)
+    {
+        Sweep sweep = middle.get();
+        if (sweep == null || !sweep.fresh)
+            return front;
+
+        // The producer only ever replaces the middle with a newer one
+        sweep = middle.getAndSet(front);
+        sweep.fresh = false;
+        return sweep;
+    }
+
+    // Get a sweep from the pool
+    private synchronized Sweep obtain(int size)
+    {
+        for (int i = 0; i < pool.size(); i++)
+            if (pool.get(i).data.length == size)
+                return pool.remove(i);
+
+        if (metrics != null)
+            metrics.sweepAllocated();
+
+        return new Sweep(size);
+    }
+
+    // Return a sweep to the pool
+    private synchronized void recycle(Sweep sweep)
+    {
+        sweep.fresh = false;
+        pool.add(sweep);
+    }
+}
@@ -0,0 +1,76 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Sweep
+public class Sweep
+{
+    protected static final int REFLECTIONS = 16;
+
+    protected short data[];
+    protected int length;
+    protected long time;
+
+    // System time in ns the pulse that started the sweep was emitted
+    protected long nanos;
+
+    // Published and not yet read
+    protected boolean fresh;
+
+    // The data has had gain applied, raw is without it
+    protected short raw[];
+    protected boolean gained;
+
+    // Detected reflections
+    protected float positions[];
+    protected float amplitudes[];
+    protected int reflections;
+
+    // Sweep
+    public Sweep(int size)
+    {
+        data = new short[size];
+        raw = new short[size];
+        positions = new float[REFLECTIONS];
+        amplitudes = new float[REFLECTIONS];
+    }
+
+    // Copy
+    public void copy(Sweep sweep)
+    {
+        System.arraycopy(sweep.data, 0, data, 0, sweep.length);
+        length = sweep.length;
+        time = sweep.time;
+        nanos = sweep.nanos;
+
+        gained = sweep.gained;
+        if (gained)
+            System.arraycopy(sweep.raw, 0, raw, 0, sweep.length);
+
+        System.arraycopy(sweep.positions, 0, positions, 0, sweep.reflections);
+        System.arraycopy(sweep.amplitudes, 0, amplitudes, 0,
+                         sweep.reflections);
+        reflections = sweep.reflections;
+    }
+}
@@ -0,0 +1,182 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Sync
+//
+// Locates the leading edge of each pulse in the capture stream by
+// correlating against the edge of the stimulus, a step of WIDTH
+// samples either side. Once two edges have been found a period apart
+// it tracks them, only looking in a window round the expected
+// position, smoothing out the noise, and fills in missing edges from
+// the expected position.
+public class Sync
+{
+    protected static final int SEARCH = 0;
+    protected static final int TRACK = 1;
+
+    protected static final int WIDTH = 8;
+
+    private static final int MISSES = 4;
+    private static final int FACTOR = 8;
+    private static final int THRESHOLD = 1024 * WIDTH;
+    private static final double GAIN = 4;
+
+    protected int state;
+    protected long t0;
+    protected long edges;
+    protected double period;
+
+    private long scan;
+    private long sum;
+    private long noise;
+
+    private long peak;
+    private long value;
+    private int misses;
+
+    // Sync
+    public Sync()
+    {
+        t0 = -1;
+        peak = -1;
+    }
+
+    // Reset
+    public void reset(long position)
+    {
+        state = SEARCH;
+        scan = position;
+        noise = 0;
+        misses = 0;
+        peak = -1;
+        t0 = -1;
+    }
+
+    // Process the history up to position, returns true with t0 set
+    // when an edge is located, call again until it returns false
+    public boolean process(short history[], int mask, long position)
+    {
+        // Start again if too far behind
+        if (scan < WIDTH || position - scan > mask)
+        {
+            reset(Math.max(WIDTH, position - mask + WIDTH));
+            sum = correlate(history, mask, scan);
+        }
+
+        int tolerance = Math.max(WIDTH * 2, (int) (period / 64));
+        long holdoff = Math.max(WIDTH * 2, (long) (period / 2));
+        long expect = (t0 < 0)? -1: t0 + Math.round(period);
+
+        // Need WIDTH samples after the edge
+        for (; scan < position - WIDTH; scan++)
+        {
+            long t = scan;
+            long c = sum;
+
+            // Update the running correlation for the next position
+            sum += history[(int) (t + WIDTH) & mask] -
+                2 * history[(int) t & mask] +
+                history[(int) (t - WIDTH) & mask];
+
+            // Update the noise estimate, ignoring edges
+            long a = Math.abs(c);
+            long threshold = Math.max(THRESHOLD, noise * FACTOR);
+            if (a < threshold)
+                noise += (a - noise) / 256;
+
+            switch (state)
+            {
+            case SEARCH:
+                if (t0 >= 0 && t - t0 < holdoff)
+                    continue;
+                break;
+
+            case TRACK:
+                if (t < expect - tolerance)
+                    continue;
+
+                // Missed it, use the expected position
+                if (t > expect + tolerance && peak < 0)
+                {
+                    if (++misses > MISSES)
+                    {
+                        state = SEARCH;
+                        continue;
+                    }
+
+                    t0 = expect;
+                    edges++;
+                    scan++;
+                    return true;
+                }
+                break;
+            }
+
+            // Look for the largest correlation over the threshold
+            if (c > threshold && (peak < 0 || c > value))
+            {
+                peak = t;
+                value = c;
+                continue;
+            }
+
+            // Found an edge
+            if (peak >= 0 && t - peak > WIDTH)
+            {
+                // Smooth out the noise on tracked edges
+                if (state == TRACK)
+                    t0 = expect + Math.round((peak - expect) / GAIN);
+
+                else
+                {
+                    // Two edges a period apart, so track them
+                    if (t0 >= 0 && Math.abs(peak - t0 - period) <= tolerance)
+                        state = TRACK;
+
+                    t0 = peak;
+                }
+
+                peak = -1;
+                misses = 0;
+                edges++;
+                scan++;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Correlate with the edge at position
+    private long correlate(short history[], int mask, long position)
+    {
+        long c = 0;
+        for (int i = 0; i < WIDTH; i++)
+            c += history[(int) (position + i) & mask] -
+                history[(int) (position - i - 1) & mask];
+
+        return c;
+    }
+}
@@ -0,0 +1,107 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Timing
+//
+// Latency and frame counters for an audio thread, updated by the
+// thread after each read or write, and read by the display. Frames
+// are dropped if the thread falls behind, so if fewer frames have
+// been transferred than the rate says there should have been since
+// the count started, less the slack for buffering, it counts as a
+// dropout, an overrun for input or underrun for output.
+public class Timing
+{
+    // Start counting again after ten seconds, so the difference
+    // between the audio and system clocks doesn't add up
+    private static final long REBASE = 10000000000L;
+
+    // Frames that may be buffered
+    protected volatile int slack;
+
+    protected volatile long frames;
+    protected volatile long calls;
+
+    // Call duration in ns
+    protected volatile long latest;
+    protected volatile long mean;
+    protected volatile long max;
+
+    protected volatile long dropouts;
+
+    // Dropouts reported by the system, if it does
+    protected volatile long reported;
+
+    private long base;
+    private long counted;
+
+    // Reset
+    public void reset()
+    {
+        frames = 0;
+        calls = 0;
+        latest = 0;
+        mean = 0;
+        max = 0;
+        dropouts = 0;
+        reported = 0;
+        base = 0;
+    }
+
+    // Update after a call from begin to end in ns that transferred
+    // count frames, returns true if frames were dropped
+    public boolean update(int count, long begin, long end, int rate)
+    {
+        long nanos = end - begin;
+
+        frames += count;
+        calls++;
+        latest = nanos;
+        mean += (nanos - mean) / 16;
+        if (nanos > max)
+            max = nanos;
+
+        // Start counting after this call
+        if (base == 0 || end - base > REBASE)
+        {
+            base = end;
+            counted = 0;
+            return false;
+        }
+
+        counted += count;
+        long expected = (end - base) * rate / 1000000000L;
+
+        // Frames were dropped, start counting again
+        if (expected - counted > slack)
+        {
+            dropouts++;
+            base = end;
+            counted = 0;
+            return true;
+        }
+
+        return false;
+    }
+}
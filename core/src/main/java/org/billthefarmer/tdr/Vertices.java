@@ -0,0 +1,111 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+// Vertices
+//
+// Trace vertices for a width in pixels, shared by the bitmap and
+// OpenGL renderers. Lines are pairs of points, as Canvas.drawLines()
+// and GL_LINES want them. If the samples are narrower than a pixel
+// the min and max of the samples in each pixel are drawn, so narrow
+// spikes don't get lost, otherwise there are also points for each
+// sample. The y values are from the centre, up is negative.
+public class Vertices
+{
+    protected float lines[];
+    protected float points[];
+
+    // Number of floats used
+    protected int lineCount;
+    protected int pointCount;
+
+    private float lastX;
+    private float lastY;
+    private boolean first;
+
+    // Vertices
+    public Vertices(int width)
+    {
+        // Two points per pixel
+        lines = new float[(width + 1) * 8];
+        points = new float[(width + 1) * 2];
+    }
+
+    // Fill the vertices for the samples from xstart to xstop
+    public void fill(Sweep sweep, Pyramid pyramid, int xstart, int xstop,
+                     float xscale, float yscale, int width, boolean dots)
+    {
+        lineCount = 0;
+        pointCount = 0;
+        first = true;
+
+        if (xscale < 1.0)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int from = xstart + (int) (x / xscale);
+                int to = xstart + (int) ((x + 1) / xscale);
+
+                if (from >= xstop)
+                    break;
+
+                pyramid.range(from, Math.min(to, xstop));
+                line(x, -pyramid.max / yscale);
+                line(x, -pyramid.min / yscale);
+            }
+        }
+
+        else
+        {
+            for (int i = 0; i < xstop - xstart; i++)
+            {
+                float x = (float) i * xscale;
+                float y = -(float) sweep.data[i + xstart] / yscale;
+                line(x, y);
+
+                if (dots)
+                {
+                    points[pointCount++] = x;
+                    points[pointCount++] = y;
+                }
+            }
+        }
+    }
+
+    // Add a line from the last point
+    private void line(float x, float y)
+    {
+        if (!first)
+        {
+            lines[lineCount++] = lastX;
+            lines[lineCount++] = lastY;
+            lines[lineCount++] = x;
+            lines[lineCount++] = y;
+        }
+
+        lastX = x;
+        lastY = y;
+        first = false;
+    }
+}
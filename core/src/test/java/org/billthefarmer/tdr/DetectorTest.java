@@ -0,0 +1,107 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// DetectorTest
+//
+// Checks the detector reports reflections once they have been seen
+// in several sweeps, at the sub-sample position of each peak of a
+// compressed response and of each edge of a step response.
+public class DetectorTest
+{
+    private static final int LENGTH = 512;
+    private static final int SWEEPS = 4;
+    private static final float TOLERANCE = 0.01f;
+
+    // Peaks of a compressed response between samples
+    @Test
+    public void compressed()
+    {
+        Sweep sweep = new Sweep(LENGTH);
+        sweep.length = LENGTH;
+        peak(sweep.data, 100.25, 20000);
+        peak(sweep.data, 300.7, -12000);
+
+        Detector detector = new Detector();
+        for (int i = 0; i < SWEEPS; i++)
+            detector.process(sweep, false);
+
+        assertEquals(2, sweep.reflections);
+        assertEquals(100.25f, sweep.positions[0], TOLERANCE);
+        assertEquals(300.7f, sweep.positions[1], TOLERANCE);
+        assertEquals(sweep.data[100], sweep.amplitudes[0], 1);
+        assertEquals(sweep.data[301], sweep.amplitudes[1], 1);
+    }
+
+    // Edges of a step response, half a sample before the first
+    // sample after each edge
+    @Test
+    public void step()
+    {
+        Sweep sweep = new Sweep(LENGTH);
+        sweep.length = LENGTH;
+        for (int i = 0; i < LENGTH; i++)
+            sweep.data[i] = (short) ((i < 150)? 10000:
+                                     (i < 400)? 14000: 6000);
+
+        Detector detector = new Detector();
+        for (int i = 0; i < SWEEPS; i++)
+            detector.process(sweep, true);
+
+        assertEquals(2, sweep.reflections);
+        assertEquals(149.5f, sweep.positions[0], TOLERANCE);
+        assertEquals(399.5f, sweep.positions[1], TOLERANCE);
+    }
+
+    // Nothing is reported until it has been seen in several sweeps
+    @Test
+    public void confirm()
+    {
+        Sweep sweep = new Sweep(LENGTH);
+        sweep.length = LENGTH;
+        peak(sweep.data, 200, 20000);
+
+        Detector detector = new Detector();
+        detector.process(sweep, false);
+        assertEquals(0, sweep.reflections);
+    }
+
+    // Add a parabolic peak, which interpolates exactly
+    private static void peak(short data[], double centre, int amplitude)
+    {
+        for (int i = 0; i < data.length; i++)
+        {
+            double d = i - centre;
+            double v = amplitude * (1 - d * d / 10);
+            if (Math.abs(v) < Math.abs(data[i]) || d * d >= 10)
+                continue;
+
+            data[i] = (short) Math.round(v);
+        }
+    }
+}
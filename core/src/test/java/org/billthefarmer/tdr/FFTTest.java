@@ -0,0 +1,140 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// FFTTest
+//
+// Checks the packed real transform against a naive DFT, and that the
+// inverse and correlation undo and match it.
+public class FFTTest
+{
+    private static final int SIZE = 256;
+    private static final double TOLERANCE = 1e-3;
+
+    // Forward transform matches the DFT
+    @Test
+    public void forward()
+    {
+        float data[] = random(SIZE);
+        double re[] = new double[SIZE];
+        double im[] = new double[SIZE];
+        dft(data, re, im);
+
+        float spectrum[] = data.clone();
+        FFT.plan(SIZE).forward(spectrum);
+
+        double scale = max(re, im);
+        assertEquals(re[0] / scale, spectrum[0] / scale, TOLERANCE);
+        assertEquals(re[SIZE / 2] / scale, spectrum[1] / scale, TOLERANCE);
+        for (int k = 1; k < SIZE / 2; k++)
+        {
+            assertEquals(re[k] / scale, spectrum[2 * k] / scale, TOLERANCE);
+            assertEquals(im[k] / scale, spectrum[2 * k + 1] / scale,
+                         TOLERANCE);
+        }
+    }
+
+    // Inverse undoes the forward transform
+    @Test
+    public void inverse()
+    {
+        float data[] = random(SIZE);
+        float copy[] = data.clone();
+
+        FFT fft = FFT.plan(SIZE);
+        fft.forward(copy);
+        fft.inverse(copy);
+
+        for (int i = 0; i < SIZE; i++)
+            assertEquals(data[i], copy[i], TOLERANCE);
+    }
+
+    // Correlation matches a direct circular correlation
+    @Test
+    public void correlate()
+    {
+        float a[] = random(SIZE);
+        float b[] = random(SIZE);
+
+        float c[] = a.clone();
+        float spectrum[] = b.clone();
+
+        FFT fft = FFT.plan(SIZE);
+        fft.forward(c);
+        fft.forward(spectrum);
+        fft.correlate(c, spectrum);
+        fft.inverse(c);
+
+        for (int i = 0; i < SIZE; i++)
+        {
+            double sum = 0;
+            for (int j = 0; j < SIZE; j++)
+                sum += a[(i + j) % SIZE] * b[j];
+
+            assertEquals(sum, c[i], TOLERANCE * SIZE);
+        }
+    }
+
+    // Naive DFT
+    private static void dft(float data[], double re[], double im[])
+    {
+        int n = data.length;
+        for (int k = 0; k < n; k++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                double a = -2 * Math.PI * ((long) k * j % n) / n;
+                re[k] += data[j] * Math.cos(a);
+                im[k] += data[j] * Math.sin(a);
+            }
+        }
+    }
+
+    // Largest magnitude
+    private static double max(double re[], double im[])
+    {
+        double max = 0;
+        for (int k = 0; k < re.length; k++)
+            max = Math.max(max, Math.hypot(re[k], im[k]));
+
+        return max;
+    }
+
+    // Random data
+    private static float[] random(int size)
+    {
+        Random random = new Random(size);
+        float data[] = new float[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (float) random.nextGaussian();
+
+        return data;
+    }
+}
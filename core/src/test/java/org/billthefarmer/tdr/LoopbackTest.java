@@ -0,0 +1,98 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// LoopbackTest
+//
+// Checks a step is found after the noise before it, and that the
+// noise of a genuine 96kHz input carries on past the 48kHz nyquist
+// while the noise of one resampled from 48kHz stops there.
+public class LoopbackTest
+{
+    private static final int RATE = 96000;
+    private static final int LOWER = 48000;
+    private static final int START = RATE / 5;
+    private static final int LENGTH = START * 2;
+    private static final int LEVEL = 8000;
+    private static final double NOISE = 4;
+
+    // A step after white noise at the full rate
+    @Test
+    public void genuine()
+    {
+        Random random = new Random(1);
+        short data[] = new short[LENGTH];
+        for (int i = 0; i < LENGTH; i++)
+            data[i] = (short) Math.round(random.nextGaussian() * NOISE +
+                                         ((i >= START + 100)? LEVEL: 0));
+
+        Loopback loopback = new Loopback();
+        assertTrue(loopback.analyse(data, START, LENGTH));
+        assertEquals(START + 99.5f, loopback.edge, 1);
+
+        assertTrue(loopback.above(data, START, (float) LOWER / RATE) > 0.5f);
+        assertTrue(loopback.above(data, START, 44100f / RATE) > 0.5f);
+    }
+
+    // The same noise at the lower rate, resampled
+    @Test
+    public void resampled()
+    {
+        Random random = new Random(2);
+        double lower[] = new double[LENGTH / 2];
+        for (int i = 0; i < lower.length; i++)
+            lower[i] = random.nextGaussian() * NOISE;
+
+        // Upsample by two with a windowed sinc
+        int taps = 64;
+        short data[] = new short[LENGTH];
+        for (int i = 0; i < LENGTH; i++)
+        {
+            double sum = 0;
+            for (int k = -taps; k <= taps; k++)
+            {
+                int j = i + k;
+                if ((j & 1) != 0 || j < 0 || j / 2 >= lower.length)
+                    continue;
+
+                double h = (k == 0)? 1: Math.sin(Math.PI * k / 2) /
+                    (Math.PI * k / 2);
+                h *= 0.5 + 0.5 * Math.cos(Math.PI * k / (taps + 1));
+                sum += lower[j / 2] * h;
+            }
+
+            data[i] = (short) Math.round(sum);
+        }
+
+        Loopback loopback = new Loopback();
+        assertTrue(loopback.above(data, START, (float) LOWER / RATE) < 0.1f);
+    }
+}
@@ -0,0 +1,105 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// PyramidTest
+//
+// Checks the min and max of ranges from the pyramid against a brute
+// force search, for whole and partial updates of odd lengths.
+public class PyramidTest
+{
+    // Every range of a sweep that isn't a power of two
+    @Test
+    public void ranges()
+    {
+        short data[] = random(203, 1);
+        Pyramid pyramid = new Pyramid(data.length);
+        pyramid.update(data, data.length, 0, data.length);
+
+        for (int from = 0; from < data.length; from++)
+            for (int to = from + 1; to <= data.length; to++)
+                check(pyramid, data, from, to);
+    }
+
+    // Partial updates of a sweep shorter than the pyramid
+    @Test
+    public void update()
+    {
+        int length = 777;
+        short data[] = random(length, 2);
+        Pyramid pyramid = new Pyramid(1024);
+        pyramid.update(data, length, 0, length);
+
+        Random random = new Random(3);
+        for (int n = 0; n < 64; n++)
+        {
+            int from = random.nextInt(length);
+            int to = from + 1 + random.nextInt(length - from);
+            for (int i = from; i < to; i++)
+                data[i] = (short) random.nextInt();
+
+            pyramid.update(data, length, from, to);
+
+            for (int i = 0; i < 64; i++)
+            {
+                int a = random.nextInt(length);
+                int b = a + 1 + random.nextInt(length - a);
+                check(pyramid, data, a, b);
+            }
+        }
+    }
+
+    // Check a range against a brute force search
+    private static void check(Pyramid pyramid, short data[], int from, int to)
+    {
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        for (int i = from; i < to; i++)
+        {
+            min = (short) Math.min(min, data[i]);
+            max = (short) Math.max(max, data[i]);
+        }
+
+        pyramid.range(from, to);
+        assertEquals(min, pyramid.min);
+        assertEquals(max, pyramid.max);
+    }
+
+    // Random data
+    private static short[] random(int length, long seed)
+    {
+        Random random = new Random(seed);
+        short data[] = new short[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (short) random.nextInt();
+
+        return data;
+    }
+}
@@ -0,0 +1,111 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// RecorderTest
+//
+// Records frames and sweeps, including more than fit in a mapped
+// region, and checks Replay reads back exactly the same frames and
+// takes its settings from the sweep records.
+public class RecorderTest
+{
+    private static final int RATE = 48000;
+    private static final int BUFFER = 1000;
+    private static final int BUFFERS = 1200;
+    private static final int LENGTH = 2048;
+
+    // Frames and settings round trip through a file
+    @Test
+    public void replay() throws IOException
+    {
+        File file = File.createTempFile("test", ".tdr");
+        file.deleteOnExit();
+
+        Random random = new Random(1);
+        short frames[] = new short[BUFFER * BUFFERS];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = (short) random.nextInt();
+
+        Recorder recorder = new Recorder(file, RATE);
+        short buffer[] = new short[BUFFER];
+        for (int i = 0; i < BUFFERS; i++)
+        {
+            System.arraycopy(frames, i * BUFFER, buffer, 0, BUFFER);
+            recorder.frames((long) i * BUFFER, buffer, BUFFER);
+            recorder.sweep((long) i * BUFFER, LENGTH, RATE, Stimulus.CHIRP,
+                           RATE, LENGTH * 2.5);
+        }
+
+        recorder.close();
+        assertEquals(null, recorder.error);
+
+        Replay replay = new Replay(file);
+        assertEquals(RATE, replay.rate);
+        assertEquals(LENGTH, replay.length);
+        assertEquals(Stimulus.CHIRP, replay.stimulus.mode);
+        assertEquals(RATE, replay.stimulus.rate);
+        assertEquals(LENGTH * 5 / 2, replay.stimulus.period);
+
+        // Read in a different size to the one recorded
+        short read[] = new short[frames.length];
+        int n = 0;
+        int count;
+        while ((count = replay.read(read, n,
+                                    Math.min(777, read.length - n))) > 0)
+            n += count;
+
+        // The last sweep record is passed at the end
+        assertEquals(0, replay.read(buffer, 0, BUFFER));
+        replay.close();
+
+        assertEquals(frames.length, n);
+        assertArrayEquals(frames, read);
+        assertEquals(BUFFERS, replay.sweeps);
+    }
+
+    // A file too short for the header isn't a recording
+    @Test(expected = IOException.class)
+    public void truncated() throws IOException
+    {
+        File file = File.createTempFile("test", ".tdr");
+        file.deleteOnExit();
+
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw"))
+        {
+            access.writeInt(Integer.reverseBytes(Recorder.MAGIC));
+        }
+
+        new Replay(file);
+    }
+}
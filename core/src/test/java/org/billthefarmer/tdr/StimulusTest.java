@@ -0,0 +1,70 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// StimulusTest
+//
+// Checks each pulse is timestamped by output frame, and that the time
+// it was emitted is found for an edge captured just after it.
+public class StimulusTest
+{
+    private static final int RATE = 48000;
+    private static final int PERIOD = 480;
+    private static final int BUFFER = 1000;
+
+    // Pulses timed from a presented frame
+    @Test
+    public void emitted()
+    {
+        Stimulus stimulus = new Stimulus();
+        stimulus.rate = RATE;
+        stimulus.period = PERIOD;
+        stimulus.reset();
+
+        short buffer[] = new short[BUFFER];
+        for (int i = 0; i < 10; i++)
+            stimulus.fill(buffer, BUFFER);
+
+        // Every pulse of the 10000 frames has been counted
+        assertEquals((10 * BUFFER + PERIOD - 1) / PERIOD, stimulus.count);
+
+        // Nothing is known until a frame has been presented
+        assertEquals(0, stimulus.emitted(1000000000L));
+
+        // Frame 4800, the start of pulse 10, presented at 1s
+        long second = 1000000000L;
+        long pulse = 10000000L;
+        stimulus.timestamp(10 * PERIOD, second);
+        assertEquals(second, stimulus.emitted(second + 3000000));
+
+        // An edge captured between pulses came from the one before
+        long edge = second + pulse * 3 + 7000000;
+        assertEquals(second + pulse * 3, stimulus.emitted(edge));
+        assertEquals(second - pulse, stimulus.emitted(second - 5000000));
+    }
+}
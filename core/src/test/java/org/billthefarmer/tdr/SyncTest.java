@@ -0,0 +1,83 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// SyncTest
+//
+// Feeds a noisy square wave through Sync a buffer at a time, and
+// checks it finds the edges, locks on to them a period apart, and
+// keeps tracking them when a pulse goes missing.
+public class SyncTest
+{
+    private static final int MASK = Capture.HISTORY - 1;
+    private static final int PERIOD = 2000;
+    private static final int FIRST = 1000;
+    private static final int LEVEL = 10000;
+    private static final int BUFFER = 256;
+
+    // Lock on to the edges and track them
+    @Test
+    public void track()
+    {
+        short history[] = new short[Capture.HISTORY];
+        Sync sync = new Sync();
+        sync.period = PERIOD;
+
+        Random random = new Random(1);
+        int pulses = 0;
+        for (long position = 0; position < 20 * PERIOD;)
+        {
+            for (int i = 0; i < BUFFER; i++, position++)
+                history[(int) position & MASK] = sample(position, random);
+
+            while (sync.process(history, MASK, position))
+            {
+                assertEquals(FIRST + pulses * PERIOD, sync.t0);
+                assertEquals((pulses == 0)? Sync.SEARCH: Sync.TRACK,
+                             sync.state);
+                pulses++;
+            }
+        }
+
+        assertEquals(20, pulses);
+        assertEquals(pulses, sync.edges);
+    }
+
+    // A square wave with noise, missing the tenth pulse
+    private static short sample(long position, Random random)
+    {
+        long t = position - FIRST;
+        int noise = random.nextInt(101) - 50;
+        if (t < 0 || t / PERIOD == 10 || t % PERIOD >= PERIOD / 2)
+            return (short) noise;
+
+        return (short) (LEVEL + noise);
+    }
+}
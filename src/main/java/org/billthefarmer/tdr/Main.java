@@ -32,19 +32,29 @@ import android.content.res.Resources;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.SubMenu;
+import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -53,10 +63,19 @@ public class Main extends Activity
 {
     private static final String PREF_SCREEN = "pref_screen";
     private static final String PREF_DARK = "pref_dark";
+    private static final String PREF_MODEL = "pref_model";
+    private static final String PREF_RATE = "pref_rate";
+    private static final String PREF_BUFFER = "pref_buffer";
+    private static final String PREF_LATENCY = "pref_latency";
+    private static final String PREF_RISE = "pref_rise";
+
+    // Used if the probe doesn't find a rate
+    private static final int DEFAULT_RATE = 192000;
 
     private static final String TAG = "TDR";
 
     protected static final int SIZE = 20;
+    protected static final int SAMPLES = 16384;
     protected static final int DEFAULT_RANGE = 3;
     protected static final float SCALE = 20;
 
@@ -73,19 +92,24 @@ public class Main extends Activity
     };
 
     private Scope scope;
+    private Trace trace;
     private XScale xscale;
     private YScale yscale;
     private Unit unit;
 
     private Audio audio;
     private Pulse pulse;
+    private Probe probe;
     private Toast toast;
     private SubMenu submenu;
 
     private boolean dark;
     private boolean screen;
+    private boolean exponential;
+    private boolean accelerated;
 
     private int range;
+    private int average;
 
     // On create
     @Override
@@ -102,19 +126,50 @@ public class Main extends Activity
         setContentView(R.layout.main);
 
         scope = findViewById(R.id.scope);
+        trace = findViewById(R.id.trace);
         xscale = findViewById(R.id.xscale);
         yscale = findViewById(R.id.yscale);
         unit = findViewById(R.id.unit);
 
+        // Share the viewport so the scope and scales pan and zoom
+        // together
+        if (scope != null && xscale != null && yscale != null)
+        {
+            Viewport viewport = new Viewport(scope, xscale, yscale);
+            viewport.scale = values[DEFAULT_RANGE];
+            viewport.length = counts[DEFAULT_RANGE];
+
+            scope.viewport = viewport;
+            xscale.viewport = viewport;
+            yscale.viewport = viewport;
+        }
+
         // Get action bar
         ActionBar actionBar = getActionBar();
 
         // Create audio
         audio = new Audio();
         pulse = new Pulse();
+        probe = new Probe();
+        audio.capture.stimulus = pulse.stimulus;
+
+        // Load the calibration references
+        try
+        {
+            audio.capture.deconvolve.load(getFilesDir());
+        }
+
+        catch (IOException e)
+        {
+            Log.e(TAG, "Calibration", e);
+        }
 
         if (scope != null)
+        {
             scope.audio = audio;
+            scope.input = audio.timing;
+            scope.output = pulse.timing;
+        }
     }
 
     // onCreateOptionsMenu
@@ -194,6 +249,197 @@ public class Main extends Activity
             setRange(range);
             break;
 
+        case R.id.aoff:
+            average = 1;
+            item.setChecked(true);
+            setAverage(average);
+            break;
+
+        case R.id.a4:
+            average = 4;
+            item.setChecked(true);
+            setAverage(average);
+            break;
+
+        case R.id.a16:
+            average = 16;
+            item.setChecked(true);
+            setAverage(average);
+            break;
+
+        case R.id.a64:
+            average = 64;
+            item.setChecked(true);
+            setAverage(average);
+            break;
+
+        case R.id.exponential:
+            exponential = !item.isChecked();
+            item.setChecked(exponential);
+            setAverage(average);
+            break;
+
+        case R.id.step:
+            item.setChecked(true);
+            pulse.stimulus.mode = Stimulus.STEP;
+            break;
+
+        case R.id.chirp:
+            item.setChecked(true);
+            pulse.stimulus.mode = Stimulus.CHIRP;
+            break;
+
+        case R.id.mls:
+            item.setChecked(true);
+            pulse.stimulus.mode = Stimulus.MLS;
+            break;
+
+        case R.id.soff:
+            item.setChecked(true);
+            setStorage(false, false);
+            break;
+
+        case R.id.persist:
+            item.setChecked(true);
+            setStorage(true, false);
+            break;
+
+        case R.id.phosphor:
+            item.setChecked(true);
+            setStorage(false, true);
+            break;
+
+        case R.id.clear:
+            if (scope != null)
+                scope.clear = true;
+            break;
+
+        case R.id.accelerated:
+            accelerated = !item.isChecked();
+            item.setChecked(accelerated);
+            setAccelerated(accelerated);
+            break;
+
+        case R.id.generic:
+            item.setChecked(true);
+            setCable(Cable.DEFAULT);
+            break;
+
+        case R.id.coax:
+            item.setChecked(true);
+            setCable(Cable.COAX);
+            break;
+
+        case R.id.satellite:
+            item.setChecked(true);
+            setCable(Cable.SATELLITE);
+            break;
+
+        case R.id.twisted:
+            item.setChecked(true);
+            setCable(Cable.TWISTED);
+            break;
+
+        case R.id.power:
+            item.setChecked(true);
+            setCable(Cable.POWER);
+            break;
+
+        case R.id.goff:
+            item.setChecked(true);
+            audio.capture.gain.set(false, 0);
+            break;
+
+        case R.id.gcable:
+            item.setChecked(true);
+            audio.capture.gain.set(true, 0);
+            break;
+
+        case R.id.g20:
+            item.setChecked(true);
+            audio.capture.gain.set(true, 20);
+            break;
+
+        case R.id.g40:
+            item.setChecked(true);
+            audio.capture.gain.set(true, 40);
+            break;
+
+        case R.id.impedance:
+            item.setChecked(!item.isChecked());
+            setImpedance(item.isChecked());
+            break;
+
+        case R.id.diagnostics:
+            if (scope != null)
+                scope.diagnostics = !item.isChecked();
+            item.setChecked(!item.isChecked());
+            break;
+
+        case R.id.metrics:
+            metrics();
+            break;
+
+        case R.id.record:
+            audio.record = !item.isChecked();
+            item.setChecked(audio.record);
+            break;
+
+        case R.id.replay:
+            replay();
+            break;
+
+        case R.id.left:
+            if (scope != null)
+                scope.viewport.left();
+            break;
+
+        case R.id.right:
+            if (scope != null)
+                scope.viewport.right();
+            break;
+
+        case R.id.start:
+            if (scope != null)
+                scope.viewport.home();
+            break;
+
+        case R.id.end:
+            if (scope != null)
+                scope.viewport.end();
+            break;
+
+        case R.id.open:
+            audio.capture.deconvolve.request = Deconvolve.OPEN;
+            break;
+
+        case R.id.shorted:
+            audio.capture.deconvolve.request = Deconvolve.SHORT;
+            break;
+
+        case R.id.load:
+            audio.capture.deconvolve.request = Deconvolve.LOAD;
+            break;
+
+        case R.id.uncalibrate:
+            audio.capture.deconvolve.clear(audio.capture.length,
+                                           pulse.stimulus.mode,
+                                           audio.sample);
+            break;
+
+        case R.id.deconvolve:
+            audio.capture.deconvolve.enabled = !item.isChecked();
+            item.setChecked(!item.isChecked());
+            break;
+
+        case R.id.probe:
+            audio.stop();
+            pulse.stop();
+            probe.stop();
+            showToast(R.string.probing);
+            probe.start();
+            break;
+
         default:
         }
 
@@ -214,9 +460,23 @@ public class Main extends Activity
         if (theme != dark && Build.VERSION.SDK_INT != Build.VERSION_CODES.M)
             recreate();
 
-        // Start the audio thread
-        audio.start();
-        pulse.start();
+        // Resume the OpenGL renderer
+        if (trace != null)
+            trace.onResume();
+
+        // Probe the audio if it hasn't been for this device, or
+        // start the audio thread
+        if (audio.rate == 0)
+        {
+            showToast(R.string.probing);
+            probe.start();
+        }
+
+        else
+        {
+            audio.start();
+            pulse.start();
+        }
     }
 
     // On pause
@@ -228,7 +488,12 @@ public class Main extends Activity
         // Save preferences
         savePreferences();
 
+        // Pause the OpenGL renderer
+        if (trace != null)
+            trace.onPause();
+
         // Stop audio thread
+        probe.stop();
         audio.stop();
         pulse.stop();
     }
@@ -236,27 +501,97 @@ public class Main extends Activity
     // Set range
     void setRange(int range)
     {
+        // Set sweep length, the sweeps for it are reused if the
+        // range has been used before
+        audio.capture.store.reserve(counts[range]);
+        audio.capture.length = counts[range];
+
         if (scope != null && xscale != null && unit != null)
         {
-            // Set up scale
-            scope.scale = values[range];
-            xscale.scale = scope.scale;
-            xscale.step = 1000 * xscale.scale;
-            unit.scale = scope.scale;
+            // Set up scale, keeping the same part of the cable in
+            // the centre
+            scope.viewport.setRange(values[range], counts[range]);
+            xscale.step = 1000 * values[range];
+            xscale.range = range;
+            unit.scale = values[range];
 
             // Set up scope points
             scope.points = (range == 0);
 
-            // Reset start
-            scope.start = 0;
-            xscale.start = 0;
-
             // Update display
             xscale.postInvalidate();
             unit.postInvalidate();
         }
     }
 
+    // Set storage, persist the traces or accumulate them in the
+    // phosphor
+    void setStorage(boolean storage, boolean phosphor)
+    {
+        if (scope == null)
+            return;
+
+        scope.storage = storage;
+        scope.phosphor = phosphor;
+        scope.clear = true;
+    }
+
+    // Draw the trace with OpenGL or on the scope bitmap
+    void setAccelerated(boolean accelerated)
+    {
+        if (scope == null || trace == null)
+            return;
+
+        trace.setVisibility(accelerated? View.VISIBLE: View.GONE);
+        scope.trace = accelerated? trace: null;
+        scope.invalidate();
+    }
+
+    // Set the cable profile
+    void setCable(int profile)
+    {
+        // The capture thread has its own tables
+        audio.capture.gain.cable = new Cable(profile);
+
+        if (scope == null || xscale == null || yscale == null)
+            return;
+
+        scope.cable = new Cable(profile);
+        scope.profiler.z0 = scope.cable.impedance;
+        scope.clear = true;
+        xscale.velocity = scope.cable.velocity;
+        yscale.z0 = scope.cable.impedance;
+
+        scope.invalidate();
+        xscale.invalidate();
+        yscale.invalidate();
+    }
+
+    // Show the impedance profile with an ohms scale, or the sweep
+    void setImpedance(boolean impedance)
+    {
+        if (scope == null || yscale == null)
+            return;
+
+        scope.impedance = impedance;
+        yscale.impedance = impedance;
+        yscale.z0 = scope.profiler.z0;
+
+        scope.invalidate();
+        yscale.invalidate();
+    }
+
+    // Set average
+    void setAverage(int count)
+    {
+        if (count > 1)
+            audio.capture.average.set(exponential? Average.EXPONENTIAL:
+                              Average.BOXCAR, count);
+
+        else
+            audio.capture.average.set(Average.OFF, 1);
+    }
+
     // Get preferences
     void getPreferences()
     {
@@ -274,6 +609,14 @@ public class Main extends Activity
             window.clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
         dark = preferences.getBoolean(PREF_DARK, false);
+
+        // Audio probed for this device
+        if (audio != null &&
+            Build.MODEL.equals(preferences.getString(PREF_MODEL, null)))
+        {
+            audio.rate = preferences.getInt(PREF_RATE, DEFAULT_RATE);
+            audio.size = preferences.getInt(PREF_BUFFER, 0);
+        }
     }
 
     // Save preferences
@@ -285,6 +628,125 @@ public class Main extends Activity
         // TODO
     }
 
+    // Use the audio configuration found by the probe
+    void probed(Probe probe)
+    {
+        // Stopped before it finished
+        if (probe.thread == null)
+            return;
+
+        probe.thread = null;
+
+        // Not found, so try the default and probe again next time
+        if (probe.rate == 0)
+        {
+            audio.rate = DEFAULT_RATE;
+            audio.size = 0;
+            showAlert(R.string.app_name, R.string.error_probe);
+        }
+
+        else
+        {
+            audio.rate = probe.rate;
+            audio.size = probe.size;
+
+            SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(this);
+            SharedPreferences.Editor editor = preferences.edit();
+
+            editor.putString(PREF_MODEL, Build.MODEL);
+            editor.putInt(PREF_RATE, probe.rate);
+            editor.putInt(PREF_BUFFER, probe.size);
+            editor.putFloat(PREF_LATENCY, probe.latency);
+            editor.putFloat(PREF_RISE, probe.rise);
+            editor.apply();
+
+            showToast(String.format(Locale.getDefault(),
+                                    getString(R.string.probed),
+                                    probe.rate, probe.latency * 1000));
+        }
+
+        audio.start();
+        pulse.start();
+    }
+
+    // Choose a recording to replay, or return to live capture
+    void replay()
+    {
+        File dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
+
+        File files[] = dir.listFiles((d, name) -> name.endsWith(".tdr"));
+        if (files == null)
+            files = new File[0];
+
+        Arrays.sort(files);
+        String names[] = new String[files.length];
+        for (int i = 0; i < files.length; i++)
+            names[i] = files[i].getName();
+
+        final File list[] = files;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.replay);
+        builder.setItems(names, (dialog, which) -> setReplay(list[which]));
+        builder.setNeutralButton(R.string.live, (dialog, which) ->
+                                 setReplay(null));
+        builder.show();
+    }
+
+    // Show the hot path metrics
+    void metrics()
+    {
+        Metrics metrics = audio.capture.metrics;
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.metrics);
+        builder.setMessage(Build.MODEL + "\n\n" + metrics);
+        builder.setPositiveButton(R.string.save, (dialog, which) ->
+                                  saveMetrics(metrics));
+        builder.setNegativeButton(R.string.reset, (dialog, which) ->
+                                  metrics.reset());
+        builder.setNeutralButton(android.R.string.ok, null);
+        builder.show();
+    }
+
+    // Save the metrics to a file
+    void saveMetrics(Metrics metrics)
+    {
+        File dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
+
+        String name = String.format(Locale.ROOT, "TDR-%tF-%<tH%<tM%<tS.txt",
+                                    new Date());
+        File file = new File(dir, name);
+        try (PrintWriter writer = new PrintWriter(file))
+        {
+            writer.format(Locale.ROOT, "%s %s %d%n%n", Build.MANUFACTURER,
+                          Build.MODEL, Build.VERSION.SDK_INT);
+            metrics.print(writer);
+            if (writer.checkError())
+                throw new IOException(file.getPath());
+
+            showToast(name);
+        }
+
+        catch (IOException e)
+        {
+            Log.e(TAG, "Metrics", e);
+            showToast(R.string.error_metrics);
+        }
+    }
+
+    // Restart the audio thread with a recording or live capture
+    void setReplay(File file)
+    {
+        audio.stop();
+        audio.replay = file;
+        audio.start();
+    }
+
     // Show alert
     void showAlert(int appName, int errorBuffer)
     {
@@ -331,12 +793,303 @@ public class Main extends Activity
         toast.show();
     }
 
+    // Wait for a thread to exit
+    private static void join(Thread t)
+    {
+        if (t == null)
+            return;
+
+        try
+        {
+            t.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Probe
+    //
+    // Tries each input rate and buffer size with a step played out
+    // and captured back in. A rate is only used if it delivers the
+    // frames it says it does, and above 48kHz only if the noise
+    // before the step carries on past the nyquist of each lower rate,
+    // as an input resampled from a lower rate has nothing above that
+    // rate's nyquist. The step is played at the output rate, which
+    // may be the lower rate, so it can't show that. The smallest
+    // buffer size without overruns is used for it. The result is kept
+    // for the device model so it only runs once.
+    protected class Probe implements Runnable
+    {
+        private static final int FRAMES = 1024;
+
+        // Read before the step and after it in ms
+        private static final int BEFORE = 200;
+        private static final int AFTER = 200;
+
+        // Step level and length in ms
+        private static final int LEVEL = 16384;
+        private static final int LENGTH = 20;
+
+        // Least ratio of the noise just above the nyquist of a lower
+        // rate to that just below it for a rate above the lowest ones
+        // not to be resampled from it
+        private static final float CLIFF = 0.25f;
+        private static final int NATIVE = 48000;
+
+        protected Thread thread;
+
+        // Best configuration
+        protected int rate;
+        protected int size;
+        protected float latency;
+        protected float rise;
+
+        // Last input measured had a cliff at a lower nyquist
+        private boolean resampled;
+
+        private final int rates[] = {192000, 96000, 48000, 44100};
+        private final int multiples[] = {1, 2, 4};
+
+        private Loopback loopback;
+        private Timing timing;
+        private short data[];
+
+        // Constructor
+        protected Probe()
+        {
+            loopback = new Loopback();
+            timing = new Timing();
+        }
+
+        // Start
+        protected void start()
+        {
+            thread = new Thread(this, "Probe");
+            thread.start();
+        }
+
+        // Stop
+        protected void stop()
+        {
+            Thread t = thread;
+            thread = null;
+
+            // Wait for the thread to exit
+            join(t);
+        }
+
+        // Run
+        @Override
+        public void run()
+        {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            processProbe();
+        }
+
+        // Process probe
+        protected void processProbe()
+        {
+            rate = 0;
+            size = 0;
+
+            // Rise at each rate, and whether it is resampled
+            float rises[] = new float[rates.length];
+            boolean resamples[] = new boolean[rates.length];
+            int sizes[] = new int[rates.length];
+            float latencies[] = new float[rates.length];
+
+            for (int i = 0; i < rates.length && thread != null; i++)
+            {
+                int minSize =
+                    AudioRecord.getMinBufferSize(rates[i],
+                                                 AudioFormat.CHANNEL_IN_MONO,
+                                                 AudioFormat.ENCODING_PCM_16BIT);
+                if (minSize <= 0)
+                    continue;
+
+                // Try the sizes from the smallest
+                for (int m : multiples)
+                {
+                    if (thread == null)
+                        break;
+
+                    if (!measure(rates[i], minSize * m))
+                        continue;
+
+                    Log.i(TAG, String.format(Locale.ROOT,
+                                             "Probe %d Hz, %d bytes, " +
+                                             "%.1f ms, rise %.1f us, " +
+                                             "%d overruns%s",
+                                             rates[i], minSize * m,
+                                             latency * 1000,
+                                             rise * 1e6f, timing.dropouts,
+                                             resampled? ", resampled": ""));
+
+                    if (timing.dropouts == 0)
+                    {
+                        rises[i] = rise;
+                        sizes[i] = minSize * m;
+                        latencies[i] = latency;
+                        resamples[i] = resampled;
+                        break;
+                    }
+                }
+            }
+
+            // Use the highest rate that isn't resampled
+            for (int i = 0; i < rates.length; i++)
+            {
+                if (sizes[i] > 0 && !resamples[i])
+                {
+                    rate = rates[i];
+                    size = sizes[i];
+                    latency = latencies[i];
+                    rise = rises[i];
+                    break;
+                }
+            }
+
+            if (thread != null)
+                runOnUiThread(() -> probed(this));
+        }
+
+        // Play a step and capture it at a rate and size, returns false
+        // if it doesn't work or the step isn't found
+        @SuppressWarnings("deprecation")
+        private boolean measure(int sample, int bytes)
+        {
+            AudioRecord audioRecord = null;
+            AudioTrack audioTrack = null;
+
+            try
+            {
+                audioRecord =
+                    new AudioRecord(audio.input, sample,
+                                    AudioFormat.CHANNEL_IN_MONO,
+                                    AudioFormat.ENCODING_PCM_16BIT,
+                                    bytes);
+                if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED)
+                    return false;
+
+                // A step at the start of a static track
+                int output =
+                    AudioTrack.getNativeOutputSampleRate(AudioManager
+                                                         .STREAM_MUSIC);
+                short step[] = new short[output * LENGTH * 2 / 1000];
+                Arrays.fill(step, 0, step.length / 2, (short) LEVEL);
+
+                audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, output,
+                                            AudioFormat.CHANNEL_OUT_MONO,
+                                            AudioFormat.ENCODING_PCM_16BIT,
+                                            step.length * 2,
+                                            AudioTrack.MODE_STATIC);
+                if (audioTrack.getState() != AudioTrack.STATE_NO_STATIC_DATA)
+                    return false;
+
+                audioTrack.write(step, 0, step.length);
+
+                int length = sample * (BEFORE + AFTER) / 1000;
+                if (data == null || data.length < length)
+                    data = new short[length];
+
+                audioRecord.startRecording();
+                timing.reset();
+                timing.slack = bytes / 2 + FRAMES;
+
+                // Read until the step is played and after it
+                int count = 0;
+                int played = -1;
+                int buffered = 0;
+                long first = 0;
+                long last = 0;
+                while (count < length && thread != null)
+                {
+                    long begin = System.nanoTime();
+                    int n = audioRecord.read(data, count,
+                                             Math.min(FRAMES, length - count));
+                    if (n <= 0)
+                        return false;
+
+                    last = System.nanoTime();
+                    timing.update(n, begin, last, sample);
+                    if (count == 0)
+                    {
+                        first = last;
+                        buffered = n;
+                    }
+
+                    count += n;
+                    if (played < 0 && count >= sample * BEFORE / 1000)
+                    {
+                        played = count;
+                        audioTrack.play();
+                    }
+                }
+
+                if (played < 0 || !loopback.analyse(data, played, count))
+                    return false;
+
+                // The input must deliver the rate it says, leaving out
+                // the first read, which may have been buffered
+                double frames = count - buffered;
+                double seconds = (last - first) / 1e9;
+                if (seconds <= 0 || frames / seconds < sample * 0.95)
+                    return false;
+
+                // Frames after the ones read when the step was played
+                // have been through the output and input buffers
+                latency = (loopback.edge - played) / sample;
+                rise = loopback.rise / sample;
+                resampled = false;
+                if (sample > NATIVE)
+                    for (int lower : rates)
+                        if (lower < sample &&
+                            loopback.above(data, played,
+                                           (float) lower / sample) < CLIFF)
+                            resampled = true;
+                return true;
+            }
+
+            catch (Exception e)
+            {
+                Log.d(TAG, "Probe " + sample, e);
+                return false;
+            }
+
+            finally
+            {
+                if (audioTrack != null)
+                    audioTrack.release();
+
+                if (audioRecord != null)
+                {
+                    if (audioRecord.getRecordingState() ==
+                        AudioRecord.RECORDSTATE_RECORDING)
+                        audioRecord.stop();
+                    audioRecord.release();
+                }
+            }
+        }
+    }
+
     // Pulse
     protected class Pulse implements Runnable
     {
         protected Thread thread;
+        protected Stimulus stimulus;
+        protected Timing timing;
+
         private AudioTrack audioTrack;
 
+        // Constructor
+        protected Pulse()
+        {
+            stimulus = new Stimulus();
+            timing = new Timing();
+        }
+
         // Start
         protected void start()
         {
@@ -351,11 +1104,12 @@ public class Main extends Activity
             thread = null;
 
             // Wait for the thread to exit
-            t.join();
+            join(t);
         }
 
         public void run()
         {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
             processPulse();
         }
 
@@ -402,25 +1156,54 @@ public class Main extends Activity
 
             audioTrack.play();
 
+            // Write to the audio track
+            Sink sink = audioTrack::write;
+            AudioTimestamp stamp =
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)?
+                new AudioTimestamp(): null;
+
             // Create the buffer
             buffer = new short[size];
+            stimulus.rate = rate;
+            stimulus.reset();
+
+            // The track buffer and one more may be buffered
+            timing.reset();
+            timing.slack = size / 2 + buffer.length;
 
             while (thread != null)
             {
-                synchronized(audio)
-                {
-                    audio.sync = true;
-                }
+                // Period is twice the sweep plus the stimulus
+                int sample = audio.sample;
+                stimulus.length = (sample > 0)?
+                    (int) ((long) audio.capture.length * rate / sample): 0;
+                stimulus.period = (sample > 0)?
+                    (int) (2L * audio.capture.length * rate / sample) +
+                    stimulus.duration(stimulus.mode): 0;
 
                 // Fill the current buffer
-                for (int i = 0; i < buffer.length; i++)
-                {
-                    // ...
-                }
+                stimulus.fill(buffer, buffer.length);
+
+                long begin = System.nanoTime();
+                int written = sink.write(buffer, 0, buffer.length);
+                long end = System.nanoTime();
+
+                audio.capture.metrics.write.record(end - begin);
+                if (timing.update(written, begin, end, rate))
+                    Log.w(TAG, "Pulse underrun " + timing.dropouts);
+
+                // Underruns counted by the track
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                    timing.reported = audioTrack.getUnderrunCount();
 
-                audioTrack.write(buffer, 0, buffer.length);
+                // When a frame was presented, to time the pulses
+                if (stamp != null && audioTrack.getTimestamp(stamp))
+                    stimulus.timestamp(stamp.framePosition, stamp.nanoTime);
             }
 
+            Log.i(TAG, "Pulse " + timing.frames + " frames, " +
+                  timing.dropouts + " underruns");
+
             audioTrack.stop();
             audioTrack.release();
         }
@@ -431,31 +1214,37 @@ public class Main extends Activity
     {
         // Preferences
         protected int input;
-        protected int sample;
+        protected volatile int sample;
+
+        // Input rate and buffer size found by the probe
+        protected int rate;
+        protected int size;
+        protected volatile boolean record;
+        protected File replay;
 
         // Data
         protected Thread thread;
-        protected short data[];
-        protected long length;
-        protected boolean sync;
+        protected Capture capture;
+        protected Timing timing;
 
         // Private data
-        private static final int SAMPLES = 524288;
         private static final int FRAMES = 4096;
 
-        private static final int INIT = 0;
-        private static final int FIRST = 1;
-        private static final int NEXT = 2;
-        private static final int LAST = 3;
+        // Saving the calibration
+        private Thread saver;
 
         private AudioRecord audioRecord;
+        private Replay replaying;
         private short buffer[];
 
         // Constructor
         protected Audio()
         {
             buffer = new short[FRAMES];
-            data = new short[SAMPLES];
+            capture = new Capture(SAMPLES);
+            timing = new Timing();
+            capture.store.reserve(counts[DEFAULT_RANGE]);
+            capture.length = counts[DEFAULT_RANGE];
         }
 
         // Start audio
@@ -470,6 +1259,7 @@ public class Main extends Activity
         @Override
         public void run()
         {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
             processAudio();
         }
 
@@ -483,7 +1273,7 @@ public class Main extends Activity
             thread = null;
 
             // Wait for the thread to exit
-            t.join();
+            join(t);
         }
 
         // Stop and release the audio recorder
@@ -509,9 +1299,16 @@ public class Main extends Activity
         // Process Audio
         protected void processAudio()
         {
-            // Assume the output sample rate will work on the input as
-            // there isn't an AudioRecord.getNativeInputSampleRate()
-            sample = 192000;
+            // Replay a recording instead
+            if (replay != null)
+            {
+                processReplay();
+                return;
+            }
+
+            // Use the rate found by the probe as there isn't an
+            // AudioRecord.getNativeInputSampleRate()
+            sample = (rate > 0)? rate: DEFAULT_RATE;
 
             // Get buffer size
             int size =
@@ -529,6 +1326,9 @@ public class Main extends Activity
                 return;
             }
 
+            // Use the size found by the probe if bigger
+            size = Math.max(size, this.size);
+
             // Create the AudioRecord object
             try
             {
@@ -565,17 +1365,84 @@ public class Main extends Activity
             // Start recording
             audioRecord.startRecording();
 
-            int index = 0;
-            int count = 0;
+            // The recorder buffer and one more may be buffered
+            timing.slack = size / 2 + FRAMES;
+
+            // Read from the audio recorder
+            process(audioRecord::read);
+
+            // Stop and release the audio recorder
+            cleanUpAudioRecord();
+        }
+
+        // Process a recording in real time
+        private void processReplay()
+        {
+            Replay source;
+
+            try
+            {
+                source = new Replay(replay);
+            }
+
+            catch (IOException e)
+            {
+                Log.e(TAG, "Replay", e);
+                runOnUiThread(() -> showToast(R.string.error_replay));
+                thread = null;
+                return;
+            }
 
-            state = INIT;
-            short last = 0;
+            source.realtime = true;
+            source.loop = true;
+
+            // Use the recorded stimulus
+            capture.stimulus = source.stimulus;
+            sample = source.rate;
+            timing.slack = FRAMES * 2;
+            replaying = source;
+            process(source);
+            replaying = null;
+
+            // Back to the live stimulus and range
+            capture.stimulus = pulse.stimulus;
+            capture.store.reserve(counts[range]);
+            capture.length = counts[range];
+
+            try
+            {
+                source.close();
+            }
+
+            catch (Exception e)
+            {
+            }
+        }
+
+        // Process the input from a source
+        @SuppressWarnings("deprecation")
+        private void process(Source source)
+        {
+            capture.sample = sample;
+            capture.reset();
+            timing.reset();
+
+            // When a frame was captured, to pair the sweeps with the
+            // pulses they came from
+            AudioTimestamp stamp =
+                (replaying == null &&
+                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)?
+                new AudioTimestamp(): null;
+
+            // Count the objects allocated on the hot path
+            Debug.startAllocCounting();
 
             // Continue until the thread is stopped
             while (thread != null)
             {
                 // Read a buffer of data
-                size = audioRecord.read(buffer, 0, FRAMES);
+                long begin = System.nanoTime();
+                int size = source.read(buffer, 0, FRAMES);
 
                 // Stop the thread if no data or error state
                 if (size <= 0)
@@ -584,12 +1451,150 @@ public class Main extends Activity
                     break;
                 }
 
+                long end = System.nanoTime();
+
+                capture.metrics.read.record(end - begin);
+                if (timing.update(size, begin, end, sample))
+                    Log.w(TAG, "Audio overrun " + timing.dropouts);
+
+                // When a frame was captured
+                if (stamp != null)
+                {
+                    int result =
+                        audioRecord.getTimestamp(stamp, AudioTimestamp
+                                                 .TIMEBASE_MONOTONIC);
+                    if (result == AudioRecord.SUCCESS)
+                        capture.timestamp(stamp.framePosition,
+                                          stamp.nanoTime);
+                }
+
+                // Use the sweep length of the recording, which changes
+                // as the sweep records are read
+                if (replaying != null && replaying.length > 0 &&
+                    replaying.length != capture.length)
+                {
+                    capture.store.reserve(replaying.length);
+                    capture.length = replaying.length;
+                }
+
+                // Start or stop recording
+                if (record && capture.recorder == null)
+                    startRecorder();
+
+                else if (!record && capture.recorder != null)
+                    stopRecorder();
+
                 // Update display
-                scope.postInvalidate();
+                int allocated = Debug.getThreadAllocCount();
+                int sweeps = capture.process(buffer, size);
+                capture.metrics.allocated(Debug.getThreadAllocCount() -
+                                          allocated);
+                if (sweeps > 0)
+                    scope.postInvalidate();
+
+                // Stop recording if there is an error
+                if (capture.recorder != null && capture.recorder.error != null)
+                    stopRecorder();
+
+                // Save a new calibration, unless the last one is
+                // still being saved
+                if (capture.deconvolve.changed &&
+                    (saver == null || !saver.isAlive()))
+                    saveCalibration();
             }
 
-            // Stop and release the audio recorder
-            cleanUpAudioRecord();
+            Debug.stopAllocCounting();
+
+            // Close the recording, a new one is started if the thread
+            // is restarted
+            if (capture.recorder != null)
+                stopRecorder();
+
+            Log.i(TAG, "Audio " + timing.frames + " frames, " +
+                  timing.dropouts + " overruns");
+        }
+
+        // Start recording in a new file
+        private void startRecorder()
+        {
+            File dir = getExternalFilesDir(null);
+            if (dir == null)
+                dir = getFilesDir();
+
+            String name = String.format(Locale.ROOT, "TDR-%tF-%<tH%<tM%<tS.tdr",
+                                        new Date());
+            try
+            {
+                capture.recorder = new Recorder(new File(dir, name), sample);
+            }
+
+            catch (IOException e)
+            {
+                Log.e(TAG, "Recorder", e);
+
+                record = false;
+                runOnUiThread(() -> showToast(R.string.error_record));
+            }
+        }
+
+        // Stop recording and close the file on another thread, as
+        // writing the index and syncing the file can take a while
+        private void stopRecorder()
+        {
+            Recorder recorder = capture.recorder;
+            capture.recorder = null;
+
+            if (recorder.error != null)
+                record = false;
+
+            Thread t = new Thread(() -> closeRecorder(recorder), "Recorder");
+            t.start();
+        }
+
+        // Close a recording
+        private void closeRecorder(Recorder recorder)
+        {
+            try
+            {
+                recorder.close();
+
+                if (recorder.error != null)
+                    throw recorder.error;
+
+                runOnUiThread(() -> showToast(recorder.file.getName()));
+            }
+
+            catch (IOException e)
+            {
+                Log.e(TAG, "Recorder", e);
+
+                record = false;
+                runOnUiThread(() -> showToast(R.string.error_record));
+            }
+        }
+
+        // Save the calibration references on another thread, like
+        // closing a recording
+        private void saveCalibration()
+        {
+            saver = new Thread(this::storeCalibration, "Calibration");
+            saver.start();
+        }
+
+        // Write the calibration references
+        private void storeCalibration()
+        {
+            try
+            {
+                capture.deconvolve.save(getFilesDir());
+                runOnUiThread(() -> showToast(R.string.calibrated));
+            }
+
+            catch (IOException e)
+            {
+                Log.e(TAG, "Calibration", e);
+                runOnUiThread(() -> showToast(R.string.error_calibrate));
+            }
         }
     }
 }
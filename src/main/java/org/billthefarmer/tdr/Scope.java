@@ -28,9 +28,10 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
+import android.os.Debug;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
 import java.util.Locale;
@@ -41,38 +42,140 @@ public class Scope extends View
     private int width;
     private int height;
 
-    private Path path;
     private Canvas cb;
     private Paint paint;
     private Bitmap bitmap;
     private Bitmap graticule;
 
     protected boolean storage;
+    protected boolean phosphor;
     protected boolean clear;
 
+    // Show the impedance profile instead of the sweep
+    protected boolean impedance;
+    protected Impedance profiler;
+
+    // Cable for the distances
+    protected Cable cable;
+
     protected float step;
-    protected float scale;
-    protected float start;
     protected float index;
 
+    // Part of the sweep shown, shared with the scales
+    protected Viewport viewport;
+
     protected float yscale;
 
     protected boolean points;
     protected Main.Audio audio;
 
+    // OpenGL trace renderer, if selected
+    protected Trace trace;
+
+    // Audio thread timing, shown if diagnostics selected
+    protected boolean diagnostics;
+    protected Timing input;
+    protected Timing output;
+
+    private Sweep sweep;
+    private Pyramid pyramid;
+
+    // Impedance profile and its pyramid
+    private Sweep profile;
+    private Pyramid profiled;
+    private boolean traceImpedance;
+
+    private float scale;
+    private float start;
+    private float zoom;
+
+    private float xscale;
+    private int xstart;
+    private float traceStart;
+    private float traceScale;
+    private float traceZoom;
+    private boolean traced;
+
+    private Vertices vertices;
+    private Phosphor histogram;
+    private Bitmap intensity;
+
+    private short value;
+    private boolean valueImpedance;
+    private long distance;
+    private float textScale;
+    private String valueText;
+    private String distanceText;
+
+    private long diagnosed;
+    private String diagnosticsText[];
+
+    private float marks[];
+    private long metres[];
+    private String labels[];
+    private int marked;
+    private boolean snapped;
+
+    // Gestures
+    private ScaleGestureDetector detector;
+    private float downX;
+    private float lastX;
+    private boolean moving;
+    private boolean panning;
+    private boolean zoomed;
+
     // Scope
     public Scope(Context context, AttributeSet attrs)
     {
         super(context, attrs);
 
-        // Create path and paint
-        path = new Path();
+        // Create paint
         paint = new Paint();
 
+        // Create an empty sweep until there is one from the store
+        sweep = new Sweep(0);
+        pyramid = new Pyramid(Main.SAMPLES);
+
+        // Create the impedance profile
+        profiler = new Impedance(Main.SAMPLES);
+        profile = new Sweep(Main.SAMPLES);
+        profiled = new Pyramid(Main.SAMPLES);
+
+        cable = new Cable(Cable.DEFAULT);
+
+        // Create reflection markers
+        marks = new float[Sweep.REFLECTIONS];
+        metres = new long[Sweep.REFLECTIONS];
+        labels = new String[Sweep.REFLECTIONS];
+
         // Set initial values
+        viewport = new Viewport(this);
         start = 0;
         scale = 1;
+        zoom = 1;
         step = 10;
+
+        // Pinch to zoom, horizontally and vertically
+        detector =
+            new ScaleGestureDetector(context, new ScaleGestureDetector
+                                     .SimpleOnScaleGestureListener()
+        {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector)
+            {
+                float x = detector.getPreviousSpanX();
+                float y = detector.getPreviousSpanY();
+
+                if (x > Main.SIZE)
+                    viewport.zoom(detector.getCurrentSpanX() / x,
+                                  detector.getFocusX());
+                if (y > Main.SIZE)
+                    viewport.zoomY(detector.getCurrentSpanY() / y);
+
+                zoomed = true;
+                return true;
+            }
+        });
     }
 
     // On size changed
@@ -84,20 +187,45 @@ public class Scope extends View
         // Get dimensions
         width = w;
         height = h;
+        viewport.width = w;
+
+        // Create vertex buffers
+        vertices = new Vertices(width);
+
+        // Create the phosphor histogram and its intensity map
+        histogram = new Phosphor(width, height);
+        intensity = Bitmap.createBitmap(width, height,
+                                        Bitmap.Config.ARGB_8888);
 
         // Create a bitmap for trace storage
         bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         cb = new Canvas(bitmap);
 
         // Create a bitmap for the graticule
-        graticule = Bitmap.createBitmap(width, height,
-                                        Bitmap.Config.ARGB_8888);
+        graticule = graticule(width, height);
+
+        // Set up paint
+        paint.setStrokeWidth(2);
+        paint.setStyle(Paint.Style.STROKE);
+
+        // Draw the graticule on the bitmap
+        cb.drawBitmap(graticule, 0, 0, null);
+
+        cb.translate(0, height / 2);
+    }
+
+    // Create a graticule bitmap
+    protected static Bitmap graticule(int width, int height)
+    {
+        Bitmap graticule = Bitmap.createBitmap(width, height,
+                                               Bitmap.Config.ARGB_8888);
         Canvas canvas = new Canvas(graticule);
 
         // Black background
         canvas.drawColor(Color.BLACK);
 
         // Set up paint
+        Paint paint = new Paint();
         paint.setStrokeWidth(2);
         paint.setStyle(Paint.Style.STROKE);
         paint.setColor(Color.argb(255, 0, 63, 0));
@@ -114,126 +242,364 @@ public class Scope extends View
             canvas.drawLine(0, -i, width, -i, paint);
         }
 
-        // Draw the graticule on the bitmap
-        cb.drawBitmap(graticule, 0, 0, null);
-
-        cb.translate(0, height / 2);
+        return graticule;
     }
 
-    private int max;
-
     // On draw
     @Override
+    @SuppressWarnings("deprecation")
     protected void onDraw(Canvas canvas)
     {
-        // Check for data
-        if ((audio == null) || (audio.data == null))
+        long begin = System.nanoTime();
+        int allocated = Debug.getThreadAllocCount();
+
+        // Swap the latest sweep for the current one
+        Sweep s = sweep;
+        if (audio != null)
+            sweep = audio.capture.store.read(sweep);
+
+        if (s != sweep)
+        {
+            // Update the decimation pyramid
+            pyramid.update(sweep.data, sweep.length, 0, sweep.length);
+        }
+
+        // Check for data, the OpenGL renderer draws its own graticule
+        if (sweep.length == 0 || audio.sample == 0)
         {
-            canvas.drawBitmap(graticule, 0, 0, null);
+            if (trace == null)
+                canvas.drawBitmap(graticule, 0, 0, null);
+            drawDiagnostics(canvas, 0);
             return;
         }
 
-        // Draw the graticule on the bitmap
-        if (!storage || clear)
+        // Distance table, only calculated if the range, rate or cable
+        // has changed
+        cable.metres(sweep.length, audio.sample);
+
+        // The part of the sweep shown
+        viewport.rate = audio.sample;
+        viewport.length = sweep.length;
+        start = viewport.start;
+        scale = viewport.scale;
+        zoom = viewport.zoom;
+
+        // Only draw the trace if the sweep or the scale has changed,
+        // the index is drawn over it
+        if (s != sweep || clear || start != traceStart ||
+            scale != traceScale || zoom != traceZoom ||
+            (trace != null) != traced || impedance != traceImpedance)
+            drawTrace();
+
+        if (trace == null)
+            canvas.drawBitmap(bitmap, 0, 0, null);
+
+        canvas.translate(0, height / 2);
+
+        // The OpenGL renderer is under this view, so draw the marks
+        // over it
+        if (trace != null)
+            drawMarks(canvas);
+
+        drawIndex(canvas);
+        drawDiagnostics(canvas, -height / 2);
+
+        textScale = scale;
+
+        // Time from the pulse being emitted to the sweep being drawn,
+        // the OpenGL renderer draws it later
+        if (s != sweep)
         {
-            cb.drawBitmap(graticule, 0, -height / 2, null);
-            clear = false;
+            long end = System.nanoTime();
+            Metrics metrics = audio.capture.metrics;
+
+            metrics.draw.record(end - begin);
+            metrics.allocated(Debug.getThreadAllocCount() - allocated);
+            metrics.latency.record(end - sweep.nanos);
+            metrics.drawn.incrementAndGet();
+        }
+    }
+
+    // Draw the trace on the bitmap, or pass it to the OpenGL renderer
+    private void drawTrace()
+    {
+        // The phosphor is only valid for the scale it was drawn at
+        if (phosphor && (clear || start != traceStart ||
+                         scale != traceScale || zoom != traceZoom ||
+                         impedance != traceImpedance))
+        {
+            histogram.clear();
+            intensity.eraseColor(Color.TRANSPARENT);
         }
 
+        // Start the profile again
+        if (impedance != traceImpedance)
+            profiler.reset();
+
+        traceStart = start;
+        traceScale = scale;
+        traceZoom = zoom;
+        traced = (trace != null);
+        traceImpedance = impedance;
+
+        // Draw the graticule on the bitmap
+        if (trace == null && (!storage || clear))
+            cb.drawBitmap(graticule, 0, -height / 2, null);
+
+        clear = false;
+
         // Calculate x scale etc
-        float xscale = (float) (2.0 / ((audio.sample / 100000.0) * scale));
-        int xstart = Math.round(start);
-        int xstep = Math.round((float) 1.0 / xscale);
+        xscale = (float) (2.0 / ((audio.sample / 100000.0) * scale));
+        xstart = Math.round(start);
         int xstop = Math.round(xstart + ((float) width / xscale));
 
-        if (xstop > audio.length)
-            xstop = (int) audio.length;
+        if (xstop > sweep.length)
+            xstop = sweep.length;
+
+        if (impedance)
+        {
+            // Update the profile from the first sample that changed
+            profiler.process(sweep, audio.capture.matched.mode ==
+                             Stimulus.STEP, profile);
+            profiled.update(profile.data, profile.length, profiler.from,
+                            profile.length);
+
+            // Fixed ohms scale
+            yscale = (float) (Impedance.RANGE * Impedance.SCALE /
+                              (height / 2.0) / zoom);
+
+            vertices.fill(profile, profiled, xstart, xstop, xscale, yscale,
+                          width, points);
+        }
 
-        // Calculate y scale
+        else
+        {
+            // Calculate y scale
+            pyramid.range(xstart, xstop);
+            int max = Math.max(Math.abs(pyramid.min), Math.abs(pyramid.max));
 
-        if (max < 4096)
-            max = 4096;
+            if (max < 4096)
+                max = 4096;
 
-        yscale = (float) (max / (height / 2.0));
+            yscale = (float) (max / (height / 2.0) / zoom);
 
-        max = 0;
+            // Fill the vertices
+            vertices.fill(sweep, pyramid, xstart, xstop, xscale, yscale,
+                          width, points);
+        }
 
-        // Draw the trace
-        path.rewind();
-        path.moveTo(0, 0);
+        // Find the detected reflections
+        mark();
 
-        if (xscale < 1.0)
+        // Let the OpenGL renderer draw it
+        if (trace != null)
+            trace.update(vertices);
+
+        else if (phosphor)
         {
-            for (int i = 0; i < xstop - xstart; i += xstep)
-            {
-                if (max < Math.abs(audio.data[i + xstart]))
-                    max = Math.abs(audio.data[i + xstart]);
+            // Accumulate the trace and draw the rows of the intensity
+            // map that have changed
+            histogram.add(vertices);
+            histogram.render();
+
+            if (histogram.to >= histogram.from)
+                intensity.setPixels(histogram.pixels,
+                                    histogram.from * width, width,
+                                    0, histogram.from, width,
+                                    histogram.to - histogram.from + 1);
+
+            cb.drawBitmap(intensity, 0, -height / 2, null);
+            drawMarks(cb);
+        }
 
-                float x = (float) i * xscale;
-                float y = -(float) audio.data[i + xstart] / yscale;
-                path.lineTo(x, y);
+        else
+        {
+            // Green trace
+            paint.setColor(Color.GREEN);
+            paint.setAntiAlias(true);
+            cb.drawLines(vertices.lines, 0, vertices.lineCount, paint);
+
+            if (vertices.pointCount > 0)
+            {
+                paint.setStrokeWidth(6);
+                cb.drawPoints(vertices.points, 0, vertices.pointCount, paint);
+                paint.setStrokeWidth(2);
             }
+
+            drawMarks(cb);
         }
-        else
+
+        // Keep the index on the reflection it was snapped to
+        if (snapped)
+            snap();
+    }
+
+    // Find the detected reflections on the screen
+    private void mark()
+    {
+        marked = 0;
+        for (int i = 0; i < sweep.reflections; i++)
         {
-            for (int i = 0; i < xstop - xstart; i++)
+            float x = (sweep.positions[i] - xstart) * xscale;
+            if (x < 0 || x >= width)
+                continue;
+
+            // Only format the distance if the digits shown have
+            // changed
+            float d = cable.metres(sweep.positions[i]);
+            long u = units(d);
+            if (labels[marked] == null || metres[marked] != u ||
+                textScale != scale)
             {
-                if (max < Math.abs(audio.data[i + xstart]))
-                    max = Math.abs(audio.data[i + xstart]);
-
-                float x = (float) i * xscale;
-                float y = -(float) audio.data[i + xstart] / yscale;
-                path.lineTo(x, y);
-
-                // Draw points at max resolution
-                if (points)
-                {
-                    path.addRect(x - 2, y - 2, x + 2, y + 2, Path.Direction.CW);
-                    path.moveTo(x, y);
-                }
+                metres[marked] = u;
+                labels[marked] = format(d);
             }
+
+            marks[marked++] = x;
         }
+    }
 
-        // Green trace
-        paint.setColor(Color.GREEN);
-        paint.setAntiAlias(true);
-        cb.drawPath(path, paint);
+    // Draw the detected reflections
+    private void drawMarks(Canvas canvas)
+    {
+        paint.setColor(Color.RED);
+        paint.setTextSize(height / 24);
+        paint.setTextAlign(Paint.Align.CENTER);
 
-        // Draw index
-        if (index > 0 && index < width)
+        for (int i = 0; i < marked; i++)
         {
-            // Yellow index
-            paint.setColor(Color.YELLOW);
+            float x = marks[i];
 
             paint.setAntiAlias(false);
-            cb.drawLine(index, -height / 2, index, height / 2, paint);
+            canvas.drawLine(x, -height / 2, x, -height / 2 + Main.SIZE,
+                            paint);
 
             paint.setAntiAlias(true);
-            paint.setTextSize(height / 24);
-            paint.setTextAlign(Paint.Align.LEFT);
+            canvas.drawText(labels[i], x, -height / 2 + Main.SIZE +
+                            height / 24, paint);
+        }
+    }
 
-            // Get value
-            int i = Math.round(index / xscale);
-            if (i + xstart < audio.length)
-            {
-                float y = -audio.data[i + xstart] / yscale;
+    // Draw the index
+    private void drawIndex(Canvas canvas)
+    {
+        if (index <= 0 || index >= width)
+            return;
+
+        // Yellow index
+        paint.setColor(Color.YELLOW);
 
-                // Draw value
-                String s = String.format(Locale.getDefault(), "%3.2f",
-                                         audio.data[i + xstart] / 32768.0);
-                cb.drawText(s, index, y, paint);
+        paint.setAntiAlias(false);
+        canvas.drawLine(index, -height / 2, index, height / 2, paint);
+
+        paint.setAntiAlias(true);
+        paint.setTextSize(height / 24);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        // Get value, from the profile if shown
+        Sweep shown = impedance? profile: sweep;
+        int i = Math.round(index / xscale);
+        if (i + xstart < shown.length)
+        {
+            float y = -shown.data[i + xstart] / yscale;
+
+            // Only format the value if it has changed
+            if (valueText == null || value != shown.data[i + xstart] ||
+                impedance != valueImpedance)
+            {
+                value = shown.data[i + xstart];
+                valueImpedance = impedance;
+                valueText = impedance?
+                    String.format(Locale.getDefault(), "%3.1f\u03a9",
+                                  profiler.ohms(value)):
+                    String.format(Locale.getDefault(), "%3.2f",
+                                  value / 32768.0);
             }
 
-            paint.setTextAlign(Paint.Align.CENTER);
-            String s = String.format(Locale.getDefault(),
-                                     (scale < 1.0) ? "%3.3f" :
-                                     (scale < 10.0) ? "%3.2f" : "%3.1f",
-                                     (start + (index * scale)) /
-                                     Main.SCALE);
-            cb.drawText(s, index, height / 2, paint);
+            // Draw value
+            canvas.drawText(valueText, index, y, paint);
+        }
+
+        // Only format the distance if the digits shown have changed
+        float d = cable.metres(xstart + index / xscale);
+        long u = units(d);
+        if (distanceText == null || distance != u || textScale != scale)
+        {
+            distance = u;
+            distanceText = format(d);
+        }
+
+        paint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText(distanceText, index, height / 2, paint);
+    }
+
+    // Draw the audio thread timing
+    private void drawDiagnostics(Canvas canvas, float top)
+    {
+        if (!diagnostics || input == null || output == null)
+            return;
+
+        // Only format the text once a second
+        long now = System.nanoTime();
+        if (diagnosticsText == null || now - diagnosed > 1000000000L)
+        {
+            diagnosed = now;
+            diagnosticsText = new String[]
+            {
+                String.format(Locale.getDefault(),
+                              "Read %3.2f/%3.2f ms, %d overruns",
+                              input.mean / 1e6, input.max / 1e6,
+                              input.dropouts),
+                String.format(Locale.getDefault(),
+                              "Write %3.2f/%3.2f ms, %d underruns (%d)",
+                              output.mean / 1e6, output.max / 1e6,
+                              output.dropouts, output.reported)
+            };
         }
 
-        canvas.drawBitmap(bitmap, 0, 0, null);
+        paint.setColor(Color.YELLOW);
+        paint.setAntiAlias(true);
+        paint.setTextSize(height / 32);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        float y = top;
+        for (String text : diagnosticsText)
+        {
+            y += height / 32;
+            canvas.drawText(text, Main.SIZE / 2, y, paint);
+        }
+    }
+
+    // Distance in the last digit shown by format()
+    private long units(float d)
+    {
+        return Math.round((double) d * ((scale < 1.0) ? 1000 :
+                                        (scale < 10.0) ? 100 :
+                                        10));
+    }
+
+    // Format a distance to suit the scale
+    private String format(float d)
+    {
+        return String.format(Locale.getDefault(),
+                             (scale < 1.0) ? "%3.3f" :
+                             (scale < 10.0) ? "%3.2f" :
+                             "%3.1f", d);
+    }
+
+    // Snap the index to a nearby reflection
+    private void snap()
+    {
+        snapped = false;
+        for (int i = 0; i < marked; i++)
+        {
+            if (Math.abs(marks[i] - index) < Main.SIZE / 2)
+            {
+                index = marks[i];
+                snapped = true;
+                break;
+            }
+        }
     }
 
     // On touch event
@@ -241,21 +607,50 @@ public class Scope extends View
     public boolean onTouchEvent(MotionEvent event)
     {
         float x = event.getX();
-        float y = event.getY();
 
-        // Set the index from the touch dimension
-        switch (event.getAction())
+        // Pinch to zoom
+        detector.onTouchEvent(event);
+        if (detector.isInProgress() || event.getPointerCount() > 1)
+            return true;
+
+        // Drag the index if touched near it, otherwise pan, and set
+        // the index with a tap
+        switch (event.getActionMasked())
         {
         case MotionEvent.ACTION_DOWN:
-            index = x;
+            downX = x;
+            lastX = x;
+            moving = Math.abs(x - index) < Main.SIZE;
+            panning = false;
+            zoomed = false;
             break;
 
         case MotionEvent.ACTION_MOVE:
-            index = x;
+            if (zoomed)
+                break;
+
+            if (moving)
+            {
+                index = x;
+                snapped = false;
+                invalidate();
+            }
+
+            else if (panning || Math.abs(x - downX) > Main.SIZE / 2)
+            {
+                panning = true;
+                viewport.pan(x - lastX);
+                lastX = x;
+            }
             break;
 
         case MotionEvent.ACTION_UP:
-            index = x;
+            if (!panning && !zoomed)
+            {
+                index = x;
+                snap();
+                invalidate();
+            }
             break;
         }
 
@@ -0,0 +1,272 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
+import android.util.AttributeSet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+// Trace
+//
+// OpenGL renderer for the trace, under the scope, which only draws
+// the index and marks over it. The graticule is a texture, and the
+// trace vertices from the scope are uploaded to a vertex buffer and
+// drawn when they change.
+public class Trace extends GLSurfaceView
+    implements GLSurfaceView.Renderer
+{
+    private static final String VERTEX =
+        "uniform vec2 scale;\n" +
+        "uniform vec2 offset;\n" +
+        "uniform float size;\n" +
+        "attribute vec2 position;\n" +
+        "varying vec2 coord;\n" +
+        "void main() {\n" +
+        "  gl_Position = vec4(position * scale + offset, 0.0, 1.0);\n" +
+        "  gl_PointSize = size;\n" +
+        "  coord = vec2(position.x * scale.x + offset.x + 1.0,\n" +
+        "               1.0 - position.y * scale.y - offset.y) / 2.0;\n" +
+        "}\n";
+
+    private static final String FRAGMENT =
+        "precision mediump float;\n" +
+        "uniform vec4 colour;\n" +
+        "uniform sampler2D graticule;\n" +
+        "uniform bool textured;\n" +
+        "varying vec2 coord;\n" +
+        "void main() {\n" +
+        "  gl_FragColor = textured? texture2D(graticule, coord): colour;\n" +
+        "}\n";
+
+    private int width;
+    private int height;
+
+    private int program;
+    private int buffers[];
+    private int textures[];
+
+    private int scale;
+    private int offset;
+    private int size;
+    private int colour;
+    private int textured;
+    private int position;
+
+    private FloatBuffer lines;
+    private FloatBuffer points;
+    private int lineCount;
+    private int pointCount;
+    private boolean changed;
+
+    // Trace
+    public Trace(Context context, AttributeSet attrs)
+    {
+        super(context, attrs);
+
+        setEGLContextClientVersion(2);
+        setPreserveEGLContextOnPause(true);
+        setRenderer(this);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+    // Update the trace from the scope vertices
+    public void update(Vertices vertices)
+    {
+        synchronized (this)
+        {
+            if (lines == null || lines.capacity() < vertices.lines.length)
+            {
+                lines = buffer(vertices.lines.length);
+                points = buffer(vertices.points.length);
+            }
+
+            lines.clear();
+            lines.put(vertices.lines, 0, vertices.lineCount);
+            lines.flip();
+            lineCount = vertices.lineCount;
+
+            points.clear();
+            points.put(vertices.points, 0, vertices.pointCount);
+            points.flip();
+            pointCount = vertices.pointCount;
+
+            changed = true;
+        }
+
+        requestRender();
+    }
+
+    // On surface created
+    @Override
+    public void onSurfaceCreated(GL10 gl, EGLConfig config)
+    {
+        program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, shader(GLES20.GL_VERTEX_SHADER,
+                                              VERTEX));
+        GLES20.glAttachShader(program, shader(GLES20.GL_FRAGMENT_SHADER,
+                                              FRAGMENT));
+        GLES20.glLinkProgram(program);
+        GLES20.glUseProgram(program);
+
+        scale = GLES20.glGetUniformLocation(program, "scale");
+        offset = GLES20.glGetUniformLocation(program, "offset");
+        size = GLES20.glGetUniformLocation(program, "size");
+        colour = GLES20.glGetUniformLocation(program, "colour");
+        textured = GLES20.glGetUniformLocation(program, "textured");
+        position = GLES20.glGetAttribLocation(program, "position");
+
+        // Lines, points and graticule quad
+        buffers = new int[3];
+        GLES20.glGenBuffers(3, buffers, 0);
+
+        textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+
+        // Upload the trace again
+        synchronized (this)
+        {
+            changed = true;
+        }
+    }
+
+    // On surface changed
+    @Override
+    public void onSurfaceChanged(GL10 gl, int w, int h)
+    {
+        width = w;
+        height = h;
+
+        GLES20.glViewport(0, 0, width, height);
+
+        // Pixels from the centre left to normalised coordinates
+        GLES20.glUniform2f(scale, 2f / width, -2f / height);
+        GLES20.glUniform2f(offset, -1, 0);
+
+        // Graticule texture
+        Bitmap graticule = Scope.graticule(width, height);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_MIN_FILTER,
+                               GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_MAG_FILTER,
+                               GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_WRAP_S,
+                               GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+                               GLES20.GL_TEXTURE_WRAP_T,
+                               GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, graticule, 0);
+        graticule.recycle();
+
+        // Graticule quad, as a strip
+        FloatBuffer quad = buffer(8);
+        quad.put(new float[] {0, height / 2f, width, height / 2f,
+                              0, -height / 2f, width, -height / 2f});
+        quad.flip();
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, 8 * 4, quad,
+                            GLES20.GL_STATIC_DRAW);
+    }
+
+    // On draw frame
+    @Override
+    public void onDrawFrame(GL10 gl)
+    {
+        // Upload the trace if it has changed
+        synchronized (this)
+        {
+            if (changed && lines != null)
+            {
+                upload(buffers[0], lines, lineCount);
+                upload(buffers[1], points, pointCount);
+                changed = false;
+            }
+        }
+
+        GLES20.glEnableVertexAttribArray(position);
+
+        // Graticule
+        GLES20.glUniform1i(textured, 1);
+        draw(buffers[2], GLES20.GL_TRIANGLE_STRIP, 4);
+
+        // Green trace
+        GLES20.glUniform1i(textured, 0);
+        GLES20.glUniform4f(colour, 0, 1, 0, 1);
+        GLES20.glLineWidth(2);
+        draw(buffers[0], GLES20.GL_LINES, lineCount / 2);
+
+        GLES20.glUniform1f(size, 6);
+        draw(buffers[1], GLES20.GL_POINTS, pointCount / 2);
+    }
+
+    // Upload vertices to a buffer
+    private void upload(int buffer, FloatBuffer data, int count)
+    {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, count * 4, data,
+                            GLES20.GL_DYNAMIC_DRAW);
+    }
+
+    // Draw vertices from a buffer
+    private void draw(int buffer, int mode, int count)
+    {
+        if (count == 0)
+            return;
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false,
+                                     0, 0);
+        GLES20.glDrawArrays(mode, 0, count);
+    }
+
+    // Compile a shader
+    private static int shader(int type, String source)
+    {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        return shader;
+    }
+
+    // Allocate a native float buffer
+    private static FloatBuffer buffer(int size)
+    {
+        return ByteBuffer.allocateDirect(size * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
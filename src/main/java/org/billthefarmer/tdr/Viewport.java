@@ -0,0 +1,154 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  TDR - An Android Time Domain Reflectometer written in Java.
+//
+//  Copyright (C) 2019	Bill Farmer
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//  Bill Farmer	 william j farmer [at] yahoo [dot] co [dot] uk.
+//
+///////////////////////////////////////////////////////////////////////////////
+
+package org.billthefarmer.tdr;
+
+import android.view.View;
+
+// Viewport
+//
+// The part of the sweep shown, shared by the scope and the scales so
+// they pan and zoom together. The start is the first sample shown and
+// the scale is the range scale, which sets the samples per pixel with
+// the rate. The zoom is the vertical magnification. Only the samples
+// shown are drawn, from the decimation pyramid, so panning and
+// zooming don't walk the whole sweep. All on the UI thread.
+public class Viewport
+{
+    // Zoom limits
+    private static final float MIN_SCALE = 0.01f;
+    private static final float MAX_SCALE = 10;
+    private static final float MAX_ZOOM = 16;
+
+    protected float start;
+    protected float scale;
+    protected float zoom;
+
+    // Sweep length, rate and width in pixels
+    protected int length;
+    protected int rate;
+    protected int width;
+
+    private View views[];
+
+    // Viewport
+    public Viewport(View... views)
+    {
+        this.views = views;
+
+        start = 0;
+        scale = 1;
+        zoom = 1;
+    }
+
+    // Samples per pixel
+    public float samples()
+    {
+        return rate * scale / 200000f;
+    }
+
+    // Sample at a pixel
+    public float sample(float x)
+    {
+        return start + x * samples();
+    }
+
+    // Set the range, keeping the same samples in the centre
+    public void setRange(float scale, int length)
+    {
+        float centre = sample(width / 2f);
+
+        this.scale = scale;
+        this.length = length;
+
+        start = centre - width / 2f * samples();
+        clamp();
+    }
+
+    // Zoom by a factor about a pixel
+    public void zoom(float factor, float x)
+    {
+        float sample = sample(x);
+
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale / factor));
+        start = sample - x * samples();
+        clamp();
+    }
+
+    // Zoom vertically by a factor
+    public void zoomY(float factor)
+    {
+        zoom = Math.max(1, Math.min(MAX_ZOOM, zoom * factor));
+        invalidate();
+    }
+
+    // Pan by pixels, positive moves the trace right
+    public void pan(float dx)
+    {
+        start -= dx * samples();
+        clamp();
+    }
+
+    // Pan half a screen left
+    public void left()
+    {
+        pan(width / 2f);
+    }
+
+    // Pan half a screen right
+    public void right()
+    {
+        pan(-width / 2f);
+    }
+
+    // Go to the start
+    public void home()
+    {
+        start = 0;
+        clamp();
+    }
+
+    // Go to the end
+    public void end()
+    {
+        start = length;
+        clamp();
+    }
+
+    // Keep the view in the sweep and redraw
+    private void clamp()
+    {
+        float last = length - width * samples();
+        start = Math.max(0, Math.min(last, start));
+
+        invalidate();
+    }
+
+    // Redraw the views
+    private void invalidate()
+    {
+        for (View view: views)
+            if (view != null)
+                view.invalidate();
+    }
+}
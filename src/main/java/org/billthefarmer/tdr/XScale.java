@@ -26,11 +26,15 @@ package org.billthefarmer.tdr;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
 
+import java.util.Arrays;
 import java.util.Locale;
 
 // XScale
@@ -39,15 +43,30 @@ public class XScale extends View
     private static final int HEIGHT_FRACTION = 32;
 
     protected float step;
-    protected float scale;
-    protected float start;
     protected float offset;
+    protected int range;
+
+    // Part of the sweep shown, shared with the scope
+    protected Viewport viewport;
+
+    // Cable velocity factor
+    protected float velocity;
 
     private int width;
     private int height;
     private int textColour;
 
     private Paint paint;
+    private float lastX;
+
+    // Rendered scale for each range, with the label spacing, the
+    // distance at the left edge and the distance per pixel it was
+    // rendered at, all in metres
+    private Bitmap bitmaps[];
+    private double spacings[];
+    private double lefts[];
+    private double sizes[];
+    private float rendered;
 
     // XScale
     @SuppressWarnings("deprecation")
@@ -69,9 +88,9 @@ public class XScale extends View
         paint = new Paint();
 
         // Set initial values
-        start = 0;
-        scale = 1;
+        viewport = new Viewport(this);
         step = 10;
+        velocity = 1;
     }
 
     // onMeasure
@@ -96,41 +115,158 @@ public class XScale extends View
         // Get actual dimensions
         width = w;
         height = h;
+
+        // Clear the cache
+        bitmaps = new Bitmap[0];
+        spacings = new double[0];
+        lefts = new double[0];
+        sizes = new double[0];
     }
 
     // onDraw
     @Override
     protected void onDraw(Canvas canvas)
     {
-        // Translate canvas
-        canvas.translate(offset, 0);
+        // Render them all again if the cable has changed
+        if (velocity != rendered)
+        {
+            rendered = velocity;
+            Arrays.fill(bitmaps, null);
+        }
+
+        if (range >= bitmaps.length)
+        {
+            bitmaps = Arrays.copyOf(bitmaps, range + 1);
+            spacings = Arrays.copyOf(spacings, range + 1);
+            lefts = Arrays.copyOf(lefts, range + 1);
+            sizes = Arrays.copyOf(sizes, range + 1);
+        }
+
+        // Distance per pixel and at the left edge, from the samples
+        // there, or from the scale until there is a rate
+        double size = (viewport.rate > 0)?
+            Distance.metres(viewport.samples(), viewport.rate) * velocity:
+            viewport.scale / Main.SCALE * velocity;
+        double left = (viewport.rate > 0)?
+            Distance.metres(viewport.start, viewport.rate) * velocity: 0;
+        double spacing = spacing(size);
+
+        // Only render the scale if the range or the label spacing has
+        // changed, or the view has moved off the end of the bitmap,
+        // which is two screens wide
+        Bitmap bitmap = bitmaps[range];
+        if (bitmap == null || spacings[range] != spacing ||
+            left < lefts[range] || left + width * size >
+            lefts[range] + bitmap.getWidth() * sizes[range])
+        {
+            spacings[range] = spacing;
+            lefts[range] = Math.max(0, left - width / 2 * size);
+            sizes[range] = size;
+            bitmap = bitmaps[range] = render(bitmap, spacing,
+                                             lefts[range], size);
+        }
+
+        // Move and stretch the bitmap to follow panning and zooming
+        canvas.save();
+        canvas.translate(offset + (float) ((lefts[range] - left) / size), 0);
+        canvas.scale((float) (sizes[range] / size), 1);
+        canvas.drawBitmap(bitmap, 0, 0, null);
+        canvas.restore();
+
+        // Units stay at the left edge
+        canvas.drawText("m", 0, height - (height / 6), paint);
+    }
+
+    // Label spacing in metres, the first 1, 2, 5 step at least ten
+    // grid squares wide
+    private double spacing(double size)
+    {
+        double wanted = size * Main.SIZE * 10;
+        double decade = Math.pow(10, Math.floor(Math.log10(wanted)));
+
+        if (decade >= wanted)
+            return decade;
+
+        if (decade * 2 >= wanted)
+            return decade * 2;
+
+        if (decade * 5 >= wanted)
+            return decade * 5;
+
+        return decade * 10;
+    }
+
+    // Render the scale into a bitmap
+    private Bitmap render(Bitmap bitmap, double spacing,
+                          double left, double size)
+    {
+        if (bitmap == null)
+            bitmap = Bitmap.createBitmap(width * 2, height,
+                                         Bitmap.Config.ARGB_8888);
+        else
+            bitmap.eraseColor(Color.TRANSPARENT);
+
+        Canvas canvas = new Canvas(bitmap);
+        int w = bitmap.getWidth();
 
         // Set up paint
         paint.setStrokeWidth(2);
         paint.setColor(textColour);
+        paint.setAntiAlias(false);
 
-        // Draw ticks
-        for (int i = 0; i < width; i += Main.SIZE)
-            canvas.drawLine(i, 0, i, height / 4, paint);
+        // Draw ticks, ten to a label and a longer one half way
+        double tick = spacing / 10;
+        for (long n = (long) Math.ceil(left / tick);; n++)
+        {
+            float x = (float) ((n * tick - left) / size);
+            if (x >= w)
+                break;
 
-        for (int i = 0; i < width; i += Main.SIZE * 5)
-            canvas.drawLine(i, 0, i, height / 3, paint);
+            canvas.drawLine(x, 0, x, (n % 5 == 0)?
+                            height / 3: height / 4, paint);
+        }
 
         // Set up paint
         paint.setAntiAlias(true);
         paint.setTextSize(height * 2 / 3);
         paint.setTextAlign(Paint.Align.CENTER);
 
+        // Enough decimals for the spacing
+        int places = (int) Math.max(0, -Math.floor(Math.log10(spacing)));
+        String f = String.format(Locale.getDefault(), "%%1.%df", places);
+
         // Draw scale
-        canvas.drawText("m", 0, height - (height / 6), paint);
+        for (long n = Math.max(1, (long) Math.ceil(left / spacing));; n++)
+        {
+            float x = (float) ((n * spacing - left) / size);
+            if (x >= w)
+                break;
+
+            String s = String.format(Locale.getDefault(), f, n * spacing);
+            canvas.drawText(s, x, height - (height / 8), paint);
+        }
+
+        return bitmap;
+    }
 
-        for (int i = Main.SIZE * 10; i < width;
-             i += Main.SIZE * 10)
+    // Drag to pan
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        float x = event.getX();
+
+        switch (event.getActionMasked())
         {
-            String s = String.format(Locale.getDefault(),
-                                     "%1.1f", (start + (i * scale)) /
-                                     Main.SCALE);
-            canvas.drawText(s, i, height - (height / 8), paint);
+        case MotionEvent.ACTION_DOWN:
+            lastX = x;
+            break;
+
+        case MotionEvent.ACTION_MOVE:
+            viewport.pan(x - lastX);
+            lastX = x;
+            break;
         }
+
+        return true;
     }
 }
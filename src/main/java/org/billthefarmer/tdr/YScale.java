@@ -26,21 +26,37 @@ package org.billthefarmer.tdr;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.View;
 
+import java.util.Locale;
+
 // YScale
 public class YScale extends View
 {
     private static final int WIDTH_FRACTION = 24;
 
+    // Ohms scale for the impedance profile
+    protected boolean impedance;
+    protected float z0;
+
+    // Vertical zoom, shared with the scope
+    protected Viewport viewport;
+
     private int width;
     private int height;
     private int textColour;
 
     private Paint paint;
+    private Bitmap bitmap;
+
+    private boolean renderedImpedance;
+    private float renderedZ0;
+    private float renderedZoom;
 
     // YScale
     @SuppressWarnings("deprecation")
@@ -60,6 +76,9 @@ public class YScale extends View
 
         // Create paint
         paint = new Paint();
+
+        z0 = 50;
+        viewport = new Viewport(this);
     }
 
     // onMeasure
@@ -84,12 +103,23 @@ public class YScale extends View
         // Get actual dimensions
         width = w;
         height = h;
+
+        // Create a bitmap for the scale
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        render();
     }
 
-    // onDraw
-    @Override
-    protected void onDraw(Canvas canvas)
+    // Render the scale, it only changes with the size or the ohms
+    private void render()
     {
+        bitmap.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new Canvas(bitmap);
+
+        renderedImpedance = impedance;
+        renderedZ0 = z0;
+        renderedZoom = viewport.zoom;
+
+        paint.setAntiAlias(false);
         paint.setStyle(Paint.Style.STROKE);
         paint.setStrokeWidth(2);
         paint.setColor(textColour);
@@ -108,5 +138,41 @@ public class YScale extends View
             canvas.drawLine(width / 3, i, width, i, paint);
             canvas.drawLine(width / 3, -i, width, -i, paint);
         }
+
+        if (!impedance)
+            return;
+
+        // Label the long ticks in ohms
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setTextSize(width / 3);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        float ohms = Impedance.RANGE / (height / 2) / viewport.zoom;
+        for (int i = 0; i < height / 2; i += Main.SIZE * 5)
+        {
+            canvas.drawText(label(z0 + i * ohms), 0, -i - 2, paint);
+            if (i > 0)
+                canvas.drawText(label(z0 - i * ohms), 0, i - 2, paint);
+        }
+    }
+
+    // Format ohms to suit the zoom
+    private String label(float ohms)
+    {
+        return String.format(Locale.getDefault(),
+                             (viewport.zoom < 4)? "%1.0f": "%1.1f", ohms);
+    }
+
+    // onDraw
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        // Render the scale again if the ohms have changed
+        if (impedance != renderedImpedance || z0 != renderedZ0 ||
+            viewport.zoom != renderedZoom)
+            render();
+
+        canvas.drawBitmap(bitmap, 0, 0, null);
     }
 }